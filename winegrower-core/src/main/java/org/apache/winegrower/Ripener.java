@@ -13,6 +13,8 @@
  */
 package org.apache.winegrower;
 
+import org.apache.winegrower.api.BatchEventAdmin;
+import org.apache.winegrower.api.EventAdminMetricsMXBean;
 import org.apache.winegrower.api.LifecycleCallbacks;
 import org.apache.winegrower.deployer.OSGiBundleLifecycle;
 import org.apache.winegrower.scanner.StandaloneScanner;
@@ -23,8 +25,10 @@ import org.apache.winegrower.scanner.manifest.OSGIInfContributor;
 import org.apache.winegrower.scanner.manifest.OSGiCDIManifestContributor;
 import org.apache.winegrower.scanner.manifest.RequirementManifestContributor;
 import org.apache.winegrower.service.BundleRegistry;
+import org.apache.winegrower.service.ConfigurationDispatcher;
 import org.apache.winegrower.service.DefaultConfigurationAdmin;
 import org.apache.winegrower.service.DefaultEventAdmin;
+import org.apache.winegrower.service.EventHandlerRegistry;
 import org.apache.winegrower.service.OSGiServices;
 import org.apache.winegrower.service.Slf4jOSGiLoggerFactory;
 import org.osgi.framework.ServiceReference;
@@ -309,6 +313,7 @@ public interface Ripener extends AutoCloseable {
 
         private final ConfigurationAdmin configurationAdmin;
         private final EventAdmin eventAdmin;
+        private ConfigurationDispatcher configurationDispatcher;
         private final OSGiServices services;
         private final BundleRegistry registry;
 
@@ -340,7 +345,7 @@ public interface Ripener extends AutoCloseable {
             runCallbacks(LifecycleCallbacks::processConfiguration, configuration);
 
             final Collection<ConfigurationListener> configurationListeners = new ArrayList<>();
-            final Collection<DefaultEventAdmin.EventHandlerInstance> eventListeners = new ArrayList<>();
+            final Collection<DefaultEventAdmin.EventHandlerInstance> eventListeners = new EventHandlerRegistry();
             this.services = new OSGiServices(this, configurationListeners, eventListeners);
             this.registry = new BundleRegistry(services, configuration);
 
@@ -351,20 +356,49 @@ public interface Ripener extends AutoCloseable {
             }
 
             this.configurationAdmin = loadConfigurationAdmin(configurationListeners);
+            if (Boolean.getBoolean("winegrower.config.async")) {
+                this.configurationDispatcher = new ConfigurationDispatcher(
+                        Integer.getInteger("winegrower.config.async.pool", 1),
+                        Long.getLong("winegrower.config.async.shutdownTimeout", 30000));
+                services.setConfigurationDispatcher(configurationDispatcher);
+                if (DefaultConfigurationAdmin.class.isInstance(configurationAdmin)) {
+                    DefaultConfigurationAdmin.class.cast(configurationAdmin).setDispatcher(configurationDispatcher);
+                }
+            }
             this.eventAdmin = loadEventAdmin(eventListeners);
             registerBuiltInService(ConfigurationAdmin.class, this.configurationAdmin, new Hashtable<>());
-            registerBuiltInService(EventAdmin.class, this.eventAdmin, new Hashtable<>());
+            if (BatchEventAdmin.class.isInstance(this.eventAdmin)) {
+                registerBuiltInService(EventAdmin.class, this.eventAdmin, new Hashtable<>(), BatchEventAdmin.class);
+            } else {
+                registerBuiltInService(EventAdmin.class, this.eventAdmin, new Hashtable<>());
+            }
+            if (DefaultEventAdmin.class.isInstance(this.eventAdmin) && DefaultEventAdmin.class.cast(this.eventAdmin).getMetrics() != null) {
+                registerBuiltInService(EventAdminMetricsMXBean.class, DefaultEventAdmin.class.cast(this.eventAdmin).getMetrics(), new Hashtable<>());
+            }
             registerBuiltInService(org.osgi.service.log.LoggerFactory.class, loadLoggerFactory(), new Hashtable<>());
             if (DefaultConfigurationAdmin.class.isInstance(configurationAdmin)) {
                 DefaultConfigurationAdmin.class.cast(configurationAdmin).preload(configuration.getDefaultConfigurationAdminPids());
+                if (Boolean.getBoolean("winegrower.config.watch")) {
+                    DefaultConfigurationAdmin.class.cast(configurationAdmin).startWatching(
+                            Long.getLong("winegrower.config.watch.debounce", 250));
+                }
             }
         }
 
         public <T> void registerBuiltInService(final Class<T> type, final T impl, final Dictionary<String, Object> props) {
+            registerBuiltInService(type, impl, props, new Class<?>[0]);
+        }
+
+        // additional types are other interfaces of the same service (BatchEventAdmin for ex)
+        public <T> void registerBuiltInService(final Class<T> type, final T impl, final Dictionary<String, Object> props,
+                                               final Class<?>... additionalTypes) {
             if (Boolean.getBoolean("winegrower.builtin.services." + type.getName() + ".skip")) {
                 return;
             }
-            this.services.registerService(new String[]{type.getName()}, impl, props, this.registry.getBundles().get(0L).getBundle());
+            final String[] classes = Stream.concat(Stream.of(type), Stream.of(additionalTypes))
+                    .map(Class::getName)
+                    .toArray(String[]::new);
+            this.services.registerService(classes, impl, props, this.registry.getBundles().get(0L).getBundle());
         }
 
         private <A> void runCallbacks(final BiConsumer<LifecycleCallbacks, A> action, final A arg) {
@@ -376,11 +410,16 @@ public interface Ripener extends AutoCloseable {
             if (configurationAdminIterator.hasNext()) {
                 return configurationAdminIterator.next();
             }
-            return new DefaultConfigurationAdmin(new HashMap<>(), configurationListeners) {
+            return new DefaultConfigurationAdmin(new HashMap<>(), configurationListeners, services.getFilterCache()) {
                 @Override
                 protected ServiceReference<ConfigurationAdmin> getSelfReference() {
                     return (ServiceReference<ConfigurationAdmin>) services.getServices().iterator().next().getReference();
                 }
+
+                @Override
+                protected void onExternalUpdate(final org.osgi.service.cm.Configuration configuration) {
+                    services.updateManagedServices(configuration.getPid(), configuration.getProperties());
+                }
             };
         }
 
@@ -397,9 +436,20 @@ public interface Ripener extends AutoCloseable {
             if (eventAdminIterator.hasNext()) {
                 return eventAdminIterator.next();
             }
-            return new DefaultEventAdmin(
-                    listeners,
-                    Integer.getInteger("winegrower.builtin.services." + EventAdmin.class.getName() + ".pool.core", Math.max(Runtime.getRuntime().availableProcessors(), 2)));
+            final String prefix = "winegrower.builtin.services." + EventAdmin.class.getName() + ".";
+            final DefaultEventAdmin.Configuration eventAdminConfiguration = new DefaultEventAdmin.Configuration();
+            eventAdminConfiguration.setPoolSize(Integer.getInteger(prefix + "pool.core", eventAdminConfiguration.getPoolSize()));
+            eventAdminConfiguration.setQueueSize(Integer.getInteger(prefix + "queue.size", eventAdminConfiguration.getQueueSize()));
+            ofNullable(System.getProperty(prefix + "queue.policy"))
+                    .map(DefaultEventAdmin.RejectionPolicy::of)
+                    .ifPresent(eventAdminConfiguration::setRejectionPolicy);
+            eventAdminConfiguration.setVirtualThreads(Boolean.getBoolean(prefix + "pool.virtual"));
+            eventAdminConfiguration.setTimeout(Long.getLong(prefix + "timeout", eventAdminConfiguration.getTimeout()));
+            eventAdminConfiguration.setBlacklistThreshold(Integer.getInteger(prefix + "timeout.blacklist", eventAdminConfiguration.getBlacklistThreshold()));
+            eventAdminConfiguration.setWatchdogPeriod(Long.getLong(prefix + "timeout.watchdog.period", eventAdminConfiguration.getWatchdogPeriod()));
+            eventAdminConfiguration.setMetrics(Boolean.getBoolean(prefix + "metrics"));
+            eventAdminConfiguration.setJmx(Boolean.parseBoolean(System.getProperty(prefix + "metrics.jmx", "true")));
+            return new DefaultEventAdmin(listeners, eventAdminConfiguration);
         }
 
         public void loadConfiguration(final InputStream stream) throws IOException {
@@ -562,6 +612,12 @@ public interface Ripener extends AutoCloseable {
                         LOGGER.warn("Can't delete work directory", e);
                     }
                 }
+                if (DefaultConfigurationAdmin.class.isInstance(configurationAdmin)) {
+                    DefaultConfigurationAdmin.class.cast(configurationAdmin).stopWatching();
+                }
+                if (configurationDispatcher != null) {
+                    configurationDispatcher.close();
+                }
                 if (DefaultEventAdmin.class.isInstance(eventAdmin)) {
                     DefaultEventAdmin.class.cast(eventAdmin).close();
                 }
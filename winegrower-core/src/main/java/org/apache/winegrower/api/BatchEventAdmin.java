@@ -0,0 +1,56 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.api;
+
+import java.util.Collection;
+
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventAdmin;
+
+/**
+ * Extension of {@link EventAdmin} for high rate publishers, registered next to the default event admin.
+ */
+public interface BatchEventAdmin extends EventAdmin {
+    /**
+     * Asynchronously publishes events, each handler gets them in order and {@link BatchEventHandler}
+     * get them in as few calls as possible.
+     *
+     * @param events the events to post.
+     */
+    void postEvents(Collection<Event> events);
+
+    /**
+     * Synchronously publishes events.
+     *
+     * @param events the events to send.
+     */
+    void sendEvents(Collection<Event> events);
+
+    /**
+     * Events posted on this topic are kept during the window and only the latest one of each key
+     * (value of the key property) is delivered at the end of the window. Sent events are never coalesced.
+     *
+     * @param topic the topic to coalesce.
+     * @param keyProperty the event property identifying the events replacing each other, null to keep only the latest event.
+     * @param windowMs the coalescing window duration in milliseconds.
+     */
+    void registerCoalescing(String topic, String keyProperty, long windowMs);
+
+    /**
+     * Stops coalescing events of the topic, pending ones are delivered.
+     *
+     * @param topic the coalesced topic.
+     */
+    void unregisterCoalescing(String topic);
+}
@@ -0,0 +1,33 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.api;
+
+import static java.util.Collections.singletonList;
+
+import java.util.List;
+
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventHandler;
+
+/**
+ * An {@link EventHandler} which gets asynchronous events by batch (in posting order).
+ */
+public interface BatchEventHandler extends EventHandler {
+    void handleEvents(List<Event> events);
+
+    @Override
+    default void handleEvent(final Event event) {
+        handleEvents(singletonList(event));
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.api;
+
+import java.util.Map;
+
+/**
+ * Event admin metrics, registered as an OSGi service and a JMX MBean when enabled
+ * ({@code winegrower.builtin.services.org.osgi.service.event.EventAdmin.metrics=true}).
+ * Latencies are in microseconds, percentiles are at most 12.5% above the real value (see {@link LatencyStatistics}).
+ */
+public interface EventAdminMetricsMXBean {
+    long getPublishedEvents();
+
+    long getDeliveredEvents();
+
+    Map<String, Long> getPublishedEventsByTopic();
+
+    // handler execution duration per event topic
+    Map<String, LatencyStatistics> getTopicLatencies();
+
+    // handler execution duration per handler (bundle:handler)
+    Map<String, LatencyStatistics> getHandlerLatencies();
+
+    // time spent by posted events in the handler queues
+    LatencyStatistics getQueueWait();
+
+    // handler execution duration
+    LatencyStatistics getExecution();
+
+    void reset();
+}
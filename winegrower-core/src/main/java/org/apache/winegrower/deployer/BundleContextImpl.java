@@ -13,7 +13,6 @@
  */
 package org.apache.winegrower.deployer;
 
-import static java.util.Arrays.asList;
 import static java.util.Optional.ofNullable;
 import static java.util.stream.Collectors.toList;
 
@@ -33,8 +32,8 @@ import java.util.stream.Stream;
 
 import org.apache.winegrower.service.BundleRegistry;
 import org.apache.winegrower.service.OSGiServices;
+import org.apache.winegrower.service.ServiceDefinition;
 import org.apache.winegrower.service.ServiceReferenceImpl;
-import org.apache.winegrower.service.ServiceRegistrationImpl;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleException;
@@ -42,7 +41,6 @@ import org.osgi.framework.BundleListener;
 import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkListener;
-import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceListener;
@@ -182,6 +180,11 @@ public class BundleContextImpl implements BundleContext {
         return services.registerService(classes, service, properties, bundleSupplier.get());
     }
 
+    // registers all the services at once (single registry update and event pass), not part of BundleContext API
+    public List<ServiceRegistration<?>> registerServices(final List<ServiceDefinition> definitions) {
+        return services.registerServices(definitions, bundleSupplier.get());
+    }
+
     @Override
     public ServiceRegistration<?> registerService(final String clazz, final Object service, final Dictionary<String, ?> properties) {
         return registerService(new String[]{clazz}, service, properties);
@@ -209,8 +212,16 @@ public class BundleContextImpl implements BundleContext {
 
     @Override
     public ServiceReference<?> getServiceReference(final String clazz) {
+        // same candidates than findCandidates (exact and assignable registrations), the index is sorted by ranking
+        if (clazz != null && !Object.class.getName().equals(clazz) && services.getHooks().getServiceFindHooks().isEmpty()) {
+            final ServiceRegistration<?> best = services.getBestService(clazz);
+            if (best != null) {
+                return best.getReference();
+            }
+        }
         return Arrays.stream(getAllServiceReferences(clazz, null))
-                     .findFirst().orElse(null);
+                     .max(ServiceReference::compareTo)
+                     .orElse(null);
     }
 
     @Override
@@ -264,7 +275,7 @@ public class BundleContextImpl implements BundleContext {
     @Override
     public Filter createFilter(final String filter) {
         try {
-            return FrameworkUtil.createFilter(filter);
+            return services.getFilterCache().getFilter(filter);
         } catch (final InvalidSyntaxException e) {
             throw new IllegalArgumentException(e);
         }
@@ -277,37 +288,20 @@ public class BundleContextImpl implements BundleContext {
 
     private ServiceReference<?>[] doGetReferences(final String clazz, final String filter, final boolean checkAssignable) {
         final Filter predicate = filter == null ? null : createFilter(filter);
-        final List<ServiceReference> references = services.getServices().stream()
-                .map(ServiceRegistrationImpl.class::cast)
+        final List<ServiceReference> references = findCandidates(clazz).stream()
                 .filter(it -> predicate == null || predicate.match(it.getReference()))
-                .filter(it -> clazz == null || Object.class.getName().equals(clazz) ||
-                        (it.getClasses() != null && matches(clazz, it)))
                 .map(ServiceRegistration::getReference)
                 .collect(toList());
         invokeServiceFindHooks(clazz, filter, checkAssignable, references);
         return references.toArray(EMPTY_REFS);
     }
 
-    private boolean matches(final String clazz, final ServiceRegistrationImpl reg) {
-        return asList(reg.getClasses()).contains(clazz) || deepMatches(clazz, reg);
-    }
-
-    private boolean deepMatches(final String clazz, final ServiceRegistrationImpl reg) {
-        final Class<?> expected;
-        try {
-            expected = Thread.currentThread().getContextClassLoader().loadClass(clazz);
-        } catch (final ClassNotFoundException e) {
-            return false;
+    private Collection<ServiceRegistration<?>> findCandidates(final String clazz) {
+        if (clazz == null || Object.class.getName().equals(clazz)) {
+            return services.getServices();
         }
-        return Stream.of(reg.getClasses())
-                .flatMap(it -> {
-                    try {
-                        return Stream.of(reg.getReference().getBundle().loadClass(it));
-                    } catch (final ClassNotFoundException e) {
-                        return Stream.empty();
-                    }
-                })
-                .anyMatch(expected::isAssignableFrom);
+        // registrations are indexed under their classes and supertypes (AssignabilityCache) at registration time
+        return services.getServices(clazz);
     }
 
     private void invokeServiceFindHooks(final String clazz, final String filter,
@@ -14,21 +14,25 @@
 package org.apache.winegrower.lang;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-
-// forked from commons-text but no need to bring a dep only for < 200 LOC
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+// originally forked from commons-text, values are now compiled once in a template of literal and variable segments:
+// - ${name} is replaced by the value of name (itself substituted), left as is when unknown,
+// - ${name:-default} uses default (which can contain placeholders) when name is unknown,
+// - names can be computed (${prefix.${suffix}}),
+// - $${ is an escaped (literal) ${.
 public class Substitutor {
+    private static final String PREFIX = "${";
+    private static final String ESCAPED_PREFIX = "$${";
+    private static final char SUFFIX = '}';
+    private static final String VALUE_DELIMITER = ":-";
 
-    private static final char ESCAPE = '$';
-
-    private static final char[] PREFIX = "${".toCharArray();
-
-    private static final char[] SUFFIX = "}".toCharArray();
-
-    private static final char[] VALUE_DELIMITER = ":-".toCharArray();
+    // templates only depend on the source so they are shared, the cache is bounded to not leak with generated values
+    private static final int MAX_CACHED_TEMPLATES = 4096;
+    private static final ConcurrentMap<String, Template> TEMPLATES = new ConcurrentHashMap<>();
 
     private final Map<String, String> valueMap;
 
@@ -37,134 +41,204 @@ public class Substitutor {
     }
 
     public String replace(final String source) {
-        if (source == null) {
-            return null;
-        }
-        final StringBuilder builder = new StringBuilder(source);
-        if (substitute(builder, 0, source.length(), null) <= 0) {
+        if (source == null || !source.contains(PREFIX)) {
             return source;
         }
-        return replace(builder.toString());
+        final Template template = compile(source);
+        if (template.isConstant()) {
+            return template.constant;
+        }
+        final List<String> resolving = new ArrayList<>();
+        resolving.add(source);
+        final StringBuilder builder = new StringBuilder(source.length() + 16);
+        template.render(this, builder, resolving);
+        return builder.toString();
     }
 
-    private int substitute(final StringBuilder buf, final int offset, final int length, List<String> priorVariables) {
-        final boolean top = priorVariables == null;
-        boolean altered = false;
-        int lengthChange = 0;
-        char[] chars = buf.toString().toCharArray();
-        int bufEnd = offset + length;
-        int pos = offset;
-        while (pos < bufEnd) {
-            final int startMatchLen = isMatch(PREFIX, chars, pos, bufEnd);
-            if (startMatchLen == 0) {
-                pos++;
-            } else {
-                if (pos > offset && chars[pos - 1] == ESCAPE) {
-                    buf.deleteCharAt(pos - 1);
-                    chars = buf.toString().toCharArray();
-                    lengthChange--;
-                    altered = true;
-                    bufEnd--;
-                } else {
-                    final int startPos = pos;
-                    pos += startMatchLen;
-                    int endMatchLen;
-                    while (pos < bufEnd) {
-                        endMatchLen = isMatch(SUFFIX, chars, pos, bufEnd);
-                        if (endMatchLen == 0) {
-                            pos++;
-                        } else {
-                            String varNameExpr = new String(chars, startPos + startMatchLen, pos - startPos - startMatchLen);
-                            pos += endMatchLen;
-                            final int endPos = pos;
-
-                            String varName = varNameExpr;
-                            String varDefaultValue = null;
-
-                            final char[] varNameExprChars = varNameExpr.toCharArray();
-                            for (int i = 0; i < varNameExprChars.length; i++) {
-                                if (isMatch(PREFIX, varNameExprChars, i, varNameExprChars.length) != 0) {
-                                    break;
-                                }
-                                final int match = isMatch(VALUE_DELIMITER, varNameExprChars, i, varNameExprChars.length);
-                                if (match != 0) {
-                                    varName = varNameExpr.substring(0, i);
-                                    varDefaultValue = varNameExpr.substring(i + match);
-                                    break;
-                                }
-                            }
-
-                            if (priorVariables == null) {
-                                priorVariables = new ArrayList<>();
-                                priorVariables.add(new String(chars, offset, length));
-                            }
-
-                            checkCyclicSubstitution(varName, priorVariables);
-                            priorVariables.add(varName);
-
-                            final String varValue = getOrDefault(varName, varDefaultValue);
-                            if (varValue != null) {
-                                final int varLen = varValue.length();
-                                buf.replace(startPos, endPos, varValue);
-                                altered = true;
-                                int change = substitute(buf, startPos, varLen, priorVariables);
-                                change = change + varLen - (endPos - startPos);
-                                pos += change;
-                                bufEnd += change;
-                                lengthChange += change;
-                                chars = buf.toString().toCharArray();
-                            }
-
-                            priorVariables.remove(priorVariables.size() - 1);
-                            break;
-                        }
+    protected String getOrDefault(final String varName, final String varDefaultValue) {
+        return valueMap.getOrDefault(varName, varDefaultValue);
+    }
+
+    private static Template compile(final String source) {
+        final Template cached = TEMPLATES.get(source);
+        if (cached != null) {
+            return cached;
+        }
+        final Template template = parse(source);
+        if (TEMPLATES.size() < MAX_CACHED_TEMPLATES) {
+            TEMPLATES.putIfAbsent(source, template);
+        }
+        return template;
+    }
+
+    private static Template parse(final String source) {
+        final List<Segment> segments = new ArrayList<>();
+        final StringBuilder literal = new StringBuilder();
+        int pos = 0;
+        while (pos < source.length()) {
+            if (source.startsWith(ESCAPED_PREFIX, pos)) {
+                literal.append(PREFIX);
+                pos += ESCAPED_PREFIX.length();
+                continue;
+            }
+            if (source.startsWith(PREFIX, pos)) {
+                final int end = findEnd(source, pos + PREFIX.length());
+                if (end > 0) {
+                    if (literal.length() > 0) {
+                        segments.add(new Literal(literal.toString()));
+                        literal.setLength(0);
                     }
+                    segments.add(parseVariable(source, pos, end));
+                    pos = end + 1;
+                    continue;
                 }
             }
+            literal.append(source.charAt(pos++));
         }
-        if (top) {
-            return altered ? 1 : 0;
+        if (literal.length() > 0) {
+            segments.add(new Literal(literal.toString()));
         }
-        return lengthChange;
+        return new Template(segments.toArray(new Segment[0]));
     }
 
-    protected String getOrDefault(final String varName, final String varDefaultValue) {
-        return valueMap.getOrDefault(varName, varDefaultValue);
+    // index of the suffix closing the placeholder starting at start (after the prefix), nested placeholders are skipped
+    private static int findEnd(final String source, final int start) {
+        int depth = 0;
+        for (int i = start; i < source.length(); i++) {
+            if (source.startsWith(PREFIX, i)) {
+                depth++;
+                i++;
+            } else if (source.charAt(i) == SUFFIX) {
+                if (depth == 0) {
+                    return i;
+                }
+                depth--;
+            }
+        }
+        return -1;
     }
 
-    private int isMatch(final char[] chars, final char[] buffer, int pos, final int bufferEnd) {
-        final int len = chars.length;
-        if (pos + len > bufferEnd) {
-            return 0;
-        }
-        for (int i = 0; i < chars.length; i++, pos++) {
-            if (chars[i] != buffer[pos]) {
-                return 0;
+    private static Variable parseVariable(final String source, final int start, final int end) {
+        final String expression = source.substring(start + PREFIX.length(), end);
+        int depth = 0;
+        for (int i = 0; i < expression.length(); i++) {
+            if (expression.startsWith(PREFIX, i)) {
+                depth++;
+                i++;
+            } else if (expression.charAt(i) == SUFFIX) {
+                depth--;
+            } else if (depth == 0 && expression.startsWith(VALUE_DELIMITER, i)) {
+                return new Variable(source.substring(start, end + 1),
+                        parse(expression.substring(0, i)), parse(expression.substring(i + VALUE_DELIMITER.length())));
             }
         }
-        return len;
+        return new Variable(source.substring(start, end + 1), parse(expression), null);
     }
 
-    private void checkCyclicSubstitution(final String varName, final List<String> priorVariables) {
-        if (!priorVariables.contains(varName)) {
+    private static void checkCyclicSubstitution(final String varName, final List<String> resolving) {
+        if (!resolving.contains(varName)) {
             return;
         }
         final StringBuilder buf = new StringBuilder(256);
         buf.append("Infinite loop in property interpolation of ");
-        buf.append(priorVariables.remove(0));
+        buf.append(resolving.get(0));
         buf.append(": ");
-        appendWithSeparators(buf, priorVariables);
+        for (int i = 1; i < resolving.size(); i++) {
+            buf.append(resolving.get(i)).append("->");
+        }
+        buf.append(varName);
         throw new IllegalStateException(buf.toString());
     }
 
-    private void appendWithSeparators(final StringBuilder builder, final Collection<String> iterable) {
-        if (iterable != null && !iterable.isEmpty()) {
-            final Iterator<?> it = iterable.iterator();
-            while (it.hasNext()) {
-                builder.append(it.next());
-                if (it.hasNext()) {
-                    builder.append("->");
+    private interface Segment {
+        void render(Substitutor substitutor, StringBuilder out, List<String> resolving);
+    }
+
+    private static final class Template implements Segment {
+        private final Segment[] segments;
+        private final String constant; // when there is no variable
+
+        private Template(final Segment[] segments) {
+            this.segments = segments;
+            if (segments.length == 0) {
+                this.constant = "";
+            } else if (segments.length == 1 && Literal.class.isInstance(segments[0])) {
+                this.constant = Literal.class.cast(segments[0]).value;
+            } else {
+                this.constant = null;
+            }
+        }
+
+        private boolean isConstant() {
+            return constant != null;
+        }
+
+        @Override
+        public void render(final Substitutor substitutor, final StringBuilder out, final List<String> resolving) {
+            if (constant != null) {
+                out.append(constant);
+                return;
+            }
+            for (final Segment segment : segments) {
+                segment.render(substitutor, out, resolving);
+            }
+        }
+
+        private String render(final Substitutor substitutor, final List<String> resolving) {
+            if (constant != null) {
+                return constant;
+            }
+            final StringBuilder builder = new StringBuilder();
+            render(substitutor, builder, resolving);
+            return builder.toString();
+        }
+    }
+
+    private static final class Literal implements Segment {
+        private final String value;
+
+        private Literal(final String value) {
+            this.value = value;
+        }
+
+        @Override
+        public void render(final Substitutor substitutor, final StringBuilder out, final List<String> resolving) {
+            out.append(value);
+        }
+    }
+
+    private static final class Variable implements Segment {
+        private final String raw; // rendered when the variable is unknown and has no default
+        private final Template name;
+        private final Template defaultValue;
+
+        private Variable(final String raw, final Template name, final Template defaultValue) {
+            this.raw = raw;
+            this.name = name;
+            this.defaultValue = defaultValue;
+        }
+
+        @Override
+        public void render(final Substitutor substitutor, final StringBuilder out, final List<String> resolving) {
+            final String varName = name.render(substitutor, resolving);
+            checkCyclicSubstitution(varName, resolving);
+
+            final String value = substitutor.getOrDefault(varName, null);
+            resolving.add(varName);
+            try {
+                if (value != null) { // values can contain placeholders too
+                    if (value.contains(PREFIX)) {
+                        compile(value).render(substitutor, out, resolving);
+                    } else {
+                        out.append(value);
+                    }
+                } else if (defaultValue != null) {
+                    defaultValue.render(substitutor, out, resolving);
+                } else {
+                    out.append(raw);
                 }
+            } finally {
+                resolving.remove(resolving.size() - 1);
             }
         }
     }
@@ -0,0 +1,67 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.osgi.framework.Bundle;
+
+// names of the types a registration is assignable to (declared classes and their supertypes) so typed lookups
+// are answered by the objectClass index without loading classes, hierarchies are computed once per class
+// and are (weakly) attached to the class itself so they go away with its classloader
+public class AssignabilityCache {
+    private final ClassValue<String[]> hierarchies = new ClassValue<String[]>() {
+        @Override
+        protected String[] computeValue(final Class<?> type) {
+            final Set<String> names = new LinkedHashSet<>();
+            collect(type, names);
+            names.remove(Object.class.getName()); // Object lookups already visit all the registrations
+            return names.toArray(new String[0]);
+        }
+    };
+
+    public String[] getAssignableTypes(final Bundle bundle, final String[] classes) {
+        final Set<String> names = new LinkedHashSet<>();
+        for (final String clazz : classes) {
+            names.add(clazz);
+            if (bundle == null) {
+                continue;
+            }
+            try {
+                addAll(names, hierarchies.get(bundle.loadClass(clazz)));
+            } catch (final ClassNotFoundException | LinkageError e) {
+                // no-op, only the declared name is indexed
+            }
+        }
+        return names.size() == classes.length ? classes : names.toArray(new String[0]);
+    }
+
+    private static void collect(final Class<?> type, final Collection<String> names) {
+        if (type == null || !names.add(type.getName())) {
+            return;
+        }
+        collect(type.getSuperclass(), names);
+        for (final Class<?> itf : type.getInterfaces()) {
+            collect(itf, names);
+        }
+    }
+
+    private static void addAll(final Collection<String> names, final String[] values) {
+        for (final String value : values) {
+            names.add(value);
+        }
+    }
+}
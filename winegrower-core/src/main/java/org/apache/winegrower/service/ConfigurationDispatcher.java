@@ -0,0 +1,149 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs configuration notifications (ConfigurationListener events, ManagedService updates)
+ * out of the caller thread. Notifications of the same PID are serialized in submission order
+ * and a pending notification is replaced by a newer one with the same coalescing key
+ * so a burst of updates only notifies the latest state.
+ */
+public class ConfigurationDispatcher implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConfigurationDispatcher.class);
+
+    private final ConcurrentMap<String, PidQueue> queues = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private final long shutdownTimeout;
+
+    public ConfigurationDispatcher(final int poolSize, final long shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+        final AtomicInteger counter = new AtomicInteger(1);
+        this.executor = Executors.newFixedThreadPool(poolSize, r -> {
+            final Thread t = new Thread(r, ConfigurationDispatcher.class.getName() + "-" + counter.getAndIncrement());
+            if (t.isDaemon()) {
+                t.setDaemon(false);
+            }
+            if (t.getPriority() != Thread.NORM_PRIORITY) {
+                t.setPriority(Thread.NORM_PRIORITY);
+            }
+            return t;
+        });
+    }
+
+    /**
+     * @param pid the ordering key.
+     * @param coalescingKey null if the notification can't be replaced by a later one (deletion for ex).
+     * @param task the notification.
+     */
+    public void dispatch(final String pid, final Object coalescingKey, final Runnable task) {
+        final PidQueue queue = queues.computeIfAbsent(String.valueOf(pid), k -> new PidQueue());
+        final boolean schedule;
+        synchronized (queue) {
+            if (coalescingKey != null) {
+                // only look up to the last barrier to not move an update after a deletion for ex
+                final Iterator<Task> it = queue.pending.descendingIterator();
+                while (it.hasNext()) {
+                    final Task pending = it.next();
+                    if (pending.coalescingKey == null) {
+                        break;
+                    }
+                    if (Objects.equals(pending.coalescingKey, coalescingKey)) {
+                        it.remove();
+                        break;
+                    }
+                }
+            }
+            queue.pending.add(new Task(coalescingKey, task));
+            schedule = !queue.scheduled;
+            queue.scheduled = true;
+        }
+        if (schedule) {
+            schedule(queue);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(shutdownTimeout, MILLISECONDS)) {
+                LOGGER.warn("Configuration notifications still running after {}ms, interrupting them", shutdownTimeout);
+                executor.shutdownNow();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void schedule(final PidQueue queue) {
+        try {
+            executor.execute(() -> drain(queue));
+        } catch (final RejectedExecutionException ree) { // closed
+            synchronized (queue) {
+                queue.pending.clear();
+                queue.scheduled = false;
+            }
+            LOGGER.warn("Can't dispatch configuration notifications, dispatcher is closed");
+        }
+    }
+
+    private void drain(final PidQueue queue) {
+        while (true) {
+            final Task task;
+            synchronized (queue) {
+                task = queue.pending.poll();
+                if (task == null) {
+                    queue.scheduled = false;
+                    return;
+                }
+            }
+            try {
+                task.task.run();
+            } catch (final RuntimeException e) {
+                LOGGER.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    private static class PidQueue {
+        private final Deque<Task> pending = new ArrayDeque<>();
+        private boolean scheduled;
+    }
+
+    private static class Task {
+        private final Object coalescingKey;
+        private final Runnable task;
+
+        private Task(final Object coalescingKey, final Runnable task) {
+            this.coalescingKey = coalescingKey;
+            this.task = task;
+        }
+    }
+}
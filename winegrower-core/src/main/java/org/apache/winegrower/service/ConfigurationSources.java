@@ -0,0 +1,98 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import static java.util.Collections.emptySet;
+import static java.util.Comparator.naturalOrder;
+import static java.util.Locale.ROOT;
+
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+// index of the "winegrower.service.*" system properties and environment variables names so configurations
+// only visit their own keys, values are always read live but names added after the index was built
+// are only seen after a refresh (configuration update/reload, OSGiServices#refreshProperties)
+final class ConfigurationSources {
+    private static final String PREFIX = "winegrower.service.";
+    private static final String ENV_PREFIX = PREFIX.toUpperCase(ROOT).replace('.', '_');
+
+    private static volatile Index index;
+
+    private ConfigurationSources() {
+        // no-op
+    }
+
+    // the index is recomputed lazily on next lookup
+    static void refresh() {
+        index = null;
+    }
+
+    static Set<String> systemPropertyNames(final String prefix) {
+        if (!prefix.startsWith(PREFIX)) {
+            return emptySet();
+        }
+        return getIndex().systemProperties.subSet(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    // names matching the prefix ignoring the case
+    static Set<String> environmentNames(final String envPrefix) {
+        if (!envPrefix.regionMatches(true, 0, ENV_PREFIX, 0, ENV_PREFIX.length())) {
+            return emptySet();
+        }
+        return getIndex().environment.subSet(envPrefix, true, envPrefix + Character.MAX_VALUE, false);
+    }
+
+    // same priority than a map of the local values overriden by system properties then environment
+    static String lookup(final String name, final Map<String, ?> local, final String defaultValue) {
+        final String env = System.getenv(name);
+        if (env != null) {
+            return env;
+        }
+        final String property = System.getProperty(name);
+        if (property != null) {
+            return property;
+        }
+        final Object value = local.get(name);
+        return value != null ? String.valueOf(value) : defaultValue;
+    }
+
+    private static Index getIndex() {
+        final Index current = index;
+        if (current != null) {
+            return current;
+        }
+        final Index created = new Index(System.getProperties());
+        index = created;
+        return created;
+    }
+
+    private static final class Index {
+        private final NavigableSet<String> systemProperties = new TreeSet<>();
+        private final NavigableSet<String> environment = new TreeSet<>(
+                String.CASE_INSENSITIVE_ORDER.thenComparing(naturalOrder()));
+
+        private Index(final Properties properties) {
+            properties.stringPropertyNames().stream()
+                    .filter(it -> it.startsWith(PREFIX))
+                    .forEach(systemProperties::add);
+            System.getenv().keySet().stream()
+                    .filter(it -> it.regionMatches(true, 0, ENV_PREFIX, 0, ENV_PREFIX.length()))
+                    .forEach(environment::add);
+        }
+
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// watches the *.cfg files of a directory and notifies the changed ones once the directory is quiet (debounce)
+class ConfigurationWatcher implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConfigurationWatcher.class);
+
+    private final Path directory;
+    private final String extension;
+    private final long debounce;
+    private final Consumer<Set<Path>> onChange;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    ConfigurationWatcher(final Path directory, final String extension, final long debounce,
+                         final Consumer<Set<Path>> onChange) {
+        this.directory = directory.toAbsolutePath().normalize();
+        this.extension = extension;
+        this.debounce = debounce;
+        this.onChange = onChange;
+        try {
+            this.watchService = this.directory.getFileSystem().newWatchService();
+            this.directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        } catch (final IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        this.thread = new Thread(this::watch, "winegrower-configuration-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (final IOException e) {
+            LOGGER.warn(e.getMessage(), e);
+        }
+        thread.interrupt();
+        try {
+            thread.join(debounce + 1000);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                final Set<Path> changed = new HashSet<>();
+                collect(watchService.take(), changed);
+                // an editor or a deployment tool can write a file in several steps, wait for the last one
+                WatchKey next;
+                while ((next = watchService.poll(debounce, MILLISECONDS)) != null) {
+                    collect(next, changed);
+                }
+                if (changed.isEmpty()) {
+                    continue;
+                }
+                try {
+                    onChange.accept(changed);
+                } catch (final RuntimeException e) {
+                    LOGGER.error("Can't reload configurations {}", changed, e);
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    private void collect(final WatchKey key, final Set<Path> changed) {
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) { // events were lost, consider all files changed
+                try (final DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + extension)) {
+                    files.forEach(changed::add);
+                } catch (final IOException e) {
+                    LOGGER.warn(e.getMessage(), e);
+                }
+                continue;
+            }
+            final Path file = directory.resolve(Path.class.cast(event.context()));
+            if (file.getFileName().toString().endsWith(extension)) {
+                changed.add(file);
+            }
+        }
+        key.reset();
+    }
+}
@@ -15,13 +15,14 @@ package org.apache.winegrower.service;
 
 import org.apache.winegrower.lang.Substitutor;
 import org.osgi.framework.Filter;
-import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.cm.Configuration;
 import org.osgi.service.cm.ConfigurationAdmin;
 import org.osgi.service.cm.ConfigurationEvent;
 import org.osgi.service.cm.ConfigurationListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -29,6 +30,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Dictionary;
@@ -40,9 +44,13 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
 import static java.util.Collections.list;
 import static java.util.Locale.ROOT;
 import static java.util.Optional.ofNullable;
@@ -51,20 +59,40 @@ import static java.util.stream.Collectors.toMap;
 
 public abstract class DefaultConfigurationAdmin implements ConfigurationAdmin {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(DefaultConfigurationAdmin.class);
+
     private final static String WINEGROWER_CONFIG_PATH = "winegrower.config.path";
 
     private final static String WINEGROWER_CONFIG_EXTENSION = ".cfg";
 
     private final Map<String, String> providedConfiguration;
 
-    private final Map<Key, Configuration> configurations = new HashMap<>();
+    private final ConcurrentMap<Key, Configuration> configurations = new ConcurrentHashMap<>();
+
+    // copy on write view of the configurations for listConfigurations, in creation order
+    private volatile Configuration[] snapshot = new Configuration[0];
 
     private final Collection<ConfigurationListener> configurationListeners;
 
+    private final FilterCache filterCache;
+
+    private ConfigurationWatcher watcher;
+
+    // null means listeners are notified synchronously
+    private volatile ConfigurationDispatcher dispatcher;
+
     public DefaultConfigurationAdmin(final Map<String, String> providedConfiguration,
                                      final Collection<ConfigurationListener> configurationListeners) {
+        this(providedConfiguration, configurationListeners, new FilterCache(64));
+    }
+
+    public DefaultConfigurationAdmin(final Map<String, String> providedConfiguration,
+                                     final Collection<ConfigurationListener> configurationListeners,
+                                     final FilterCache filterCache) {
         this.providedConfiguration = providedConfiguration;
         this.configurationListeners = configurationListeners;
+        this.filterCache = filterCache;
+        ConfigurationSources.refresh(); // system properties set before the startup
     }
 
     public void preload(final List<String> names) {
@@ -74,6 +102,47 @@ public abstract class DefaultConfigurationAdmin implements ConfigurationAdmin {
         names.forEach(it -> getConfiguration(it).setBundleLocation(null));
     }
 
+    public void setDispatcher(final ConfigurationDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    // reloads the configurations when their external file (winegrower.config.path) changes
+    public synchronized void startWatching(final long debounce) {
+        if (watcher != null) {
+            return;
+        }
+        final String directory = getConfigurationDirectory();
+        if (directory == null || !new File(directory).isDirectory()) {
+            LOGGER.warn("No configuration directory to watch ({})", directory);
+            return;
+        }
+        watcher = new ConfigurationWatcher(new File(directory).toPath(), WINEGROWER_CONFIG_EXTENSION, debounce, this::reload);
+    }
+
+    public synchronized void stopWatching() {
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+    }
+
+    // called when an external change modified the properties of a configuration
+    protected void onExternalUpdate(final Configuration configuration) {
+        // no-op
+    }
+
+    private void reload(final Set<Path> files) {
+        ConfigurationSources.refresh();
+        for (final Configuration configuration : snapshot) {
+            final DefaultConfiguration defaultConfiguration = DefaultConfiguration.class.cast(configuration);
+            if (!files.contains(defaultConfiguration.getFile()) || !defaultConfiguration.reload()) {
+                continue;
+            }
+            fireEvent(ConfigurationEvent.CM_UPDATED, configuration.getFactoryPid(), configuration.getPid());
+            onExternalUpdate(configuration);
+        }
+    }
+
     public Map<String, String> getProvidedConfiguration() {
         return providedConfiguration;
     }
@@ -111,8 +180,12 @@ public abstract class DefaultConfigurationAdmin implements ConfigurationAdmin {
     @Override
     public Configuration[] listConfigurations(final String filter) {
         try {
-            final Filter predicate = filter == null ? null : FrameworkUtil.createFilter(filter);
-            return configurations.values().stream().filter(it -> predicate == null || predicate.match(it.getProperties()))
+            final Filter predicate = filter == null ? null : filterCache.getFilter(filter);
+            final Configuration[] current = snapshot;
+            if (predicate == null) {
+                return current.clone();
+            }
+            return Stream.of(current).filter(it -> predicate.match(it.getProperties()))
                     .toArray(Configuration[]::new);
         } catch (final InvalidSyntaxException e) {
             throw new IllegalArgumentException(e);
@@ -126,34 +199,70 @@ public abstract class DefaultConfigurationAdmin implements ConfigurationAdmin {
         if (existing != null) {
             return existing;
         }
-        final DefaultConfiguration created = new DefaultConfiguration(providedConfiguration,
+        // built outside of the map since it reads the configuration sources (I/O), a concurrent creation can win
+        final Configuration configuration = newConfiguration(factoryPid, pid, location, name);
+        synchronized (configurations) { // the winner is published before being returned so it is always listed
+            final Configuration winner = configurations.putIfAbsent(key, configuration);
+            if (winner != null) {
+                return winner;
+            }
+            final Configuration[] current = snapshot;
+            final Configuration[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = configuration;
+            snapshot = next;
+        }
+        return configuration;
+    }
+
+    private Configuration newConfiguration(final String factoryPid, final String pid, final String location,
+                                           final String name) {
+        return new DefaultConfiguration(providedConfiguration,
                 factoryPid, pid, location, name) {
             @Override
             public void setBundleLocation(final String location) {
                 super.setBundleLocation(location);
-                final ConfigurationEvent event = new ConfigurationEvent(
-                        getSelfReference(), ConfigurationEvent.CM_LOCATION_CHANGED, factoryPid, pid);
-                configurationListeners.forEach(it -> it.configurationEvent(event));
+                fireEvent(ConfigurationEvent.CM_LOCATION_CHANGED, factoryPid, pid);
             }
 
             @Override
             public void update(Dictionary<String, ?> properties) {
                 super.update(properties);
-                final ConfigurationEvent event = new ConfigurationEvent(
-                        getSelfReference(), ConfigurationEvent.CM_UPDATED, factoryPid, pid);
-                configurationListeners.forEach(it -> it.configurationEvent(event));
+                fireEvent(ConfigurationEvent.CM_UPDATED, factoryPid, pid);
             }
 
             @Override
             public void delete() {
                 super.delete();
-                final ConfigurationEvent event = new ConfigurationEvent(
-                        getSelfReference(), ConfigurationEvent.CM_DELETED, factoryPid, pid);
-                configurationListeners.forEach(it -> it.configurationEvent(event));
+                fireEvent(ConfigurationEvent.CM_DELETED, factoryPid, pid);
             }
         };
-        configurations.putIfAbsent(key, created);
-        return created;
+    }
+
+    private void fireEvent(final int type, final String factoryPid, final String pid) {
+        final ConfigurationEvent event = new ConfigurationEvent(getSelfReference(), type, factoryPid, pid);
+        final ConfigurationDispatcher dispatcher = this.dispatcher;
+        if (dispatcher == null) {
+            configurationListeners.forEach(it -> it.configurationEvent(event));
+            return;
+        }
+        // listeners read the current properties so consecutive updates only need one notification
+        dispatcher.dispatch(pid != null ? pid : factoryPid,
+                type == ConfigurationEvent.CM_UPDATED ? ConfigurationEvent.class : null,
+                () -> {
+                    final Collection<ConfigurationListener> listeners;
+                    synchronized (configurationListeners) {
+                        listeners = new ArrayList<>(configurationListeners);
+                    }
+                    listeners.forEach(it -> it.configurationEvent(event));
+                });
+    }
+
+    private static String getConfigurationDirectory() {
+        // support a cascade of known "homes"
+        return System.getProperty(WINEGROWER_CONFIG_PATH,
+                System.getProperty("karaf.base",
+                        System.getProperty("catalina.base",
+                                System.getProperty("karaf.home", System.getProperty("karaf.etc")))));
     }
 
     protected abstract ServiceReference<ConfigurationAdmin> getSelfReference();
@@ -176,6 +285,9 @@ public abstract class DefaultConfigurationAdmin implements ConfigurationAdmin {
 
         private final Hashtable<String, Object> properties;
 
+        // last properties passed to update(), they override the loaded ones on reload
+        private volatile Map<String, String> overrides = emptyMap();
+
         private final AtomicLong changeCount = new AtomicLong();
 
         private final Set<ConfigurationAttribute> attributes = new HashSet<>();
@@ -188,18 +300,32 @@ public abstract class DefaultConfigurationAdmin implements ConfigurationAdmin {
             this.location = location;
             this.name = name;
             this.properties = new Hashtable<>();
-            this.defaultExternalConfigLocation = new File(
-                    // support a cascade of known "homes"
-                    System.getProperty(WINEGROWER_CONFIG_PATH,
-                            System.getProperty("karaf.base",
-                                    System.getProperty("catalina.base",
-                                            System.getProperty("karaf.home", System.getProperty("karaf.etc"))))),
-                    pid + WINEGROWER_CONFIG_EXTENSION);
-            loadConfig(pid);
+            this.defaultExternalConfigLocation = new File(getConfigurationDirectory(), pid + WINEGROWER_CONFIG_EXTENSION);
+            loadConfig(pid, properties);
+
+        }
 
+        private Path getFile() {
+            return defaultExternalConfigLocation.toPath().toAbsolutePath().normalize();
         }
 
-        private void loadConfig(final String pid) {
+        // recomputes the properties and only swaps them when they changed
+        private synchronized boolean reload() {
+            final Hashtable<String, Object> reloaded = new Hashtable<>();
+            loadConfig(pid, reloaded);
+            reloaded.putAll(overrides);
+            synchronized (properties) {
+                if (reloaded.equals(properties)) {
+                    return false;
+                }
+                properties.clear();
+                properties.putAll(reloaded);
+            }
+            changeCount.incrementAndGet();
+            return true;
+        }
+
+        private void loadConfig(final String pid, final Hashtable<String, Object> properties) {
             final String prefix = "winegrower.service." + pid + "."; // for "global" registries like system props
 
             // we first read the config from the classpath (lowest priority)
@@ -220,22 +346,19 @@ public abstract class DefaultConfigurationAdmin implements ConfigurationAdmin {
             // then from an external file
             if (defaultExternalConfigLocation.isFile()) {
                 try (final InputStream stream = new FileInputStream(defaultExternalConfigLocation)) {
-                    this.properties.putAll(load(stream));
+                    properties.putAll(load(stream));
                 } catch (final IOException e) {
                     throw new IllegalArgumentException(e);
                 }
             }
 
-            final Map<String, String> placeholders = new HashMap<>(Map.class.cast(properties));
-            placeholders.putAll(Map.class.cast(System.getProperties()));
-            placeholders.putAll(System.getenv());
-            final Substitutor substitutor = new Substitutor(placeholders);
+            final Substitutor substitutor = newSubstitutor(new HashMap<>(properties));
 
             // and finally from system properties and env variables
             // (env is for the machine so less precise than system props so set first)
             final String envPrefix = prefix.toUpperCase(ROOT).replace('.', '_');
-            System.getenv().keySet().stream()
-                    .filter(it -> it.length() > prefix.length() && envPrefix.equalsIgnoreCase(it.substring(0, envPrefix.length())))
+            ConfigurationSources.environmentNames(envPrefix).stream()
+                    .filter(it -> it.length() > envPrefix.length())
                     .forEach(key -> {
                         final String k = key.substring(envPrefix.length());
                         // env keys loose the case so in case it is important, enable to force the key name
@@ -253,10 +376,12 @@ public abstract class DefaultConfigurationAdmin implements ConfigurationAdmin {
                                 value.contains("${") && value.contains("}") ? substitutor.replace(value) : value);
                     });
 
-            System.getProperties().stringPropertyNames().stream()
-                    .filter(it -> it.startsWith(prefix))
+            ConfigurationSources.systemPropertyNames(prefix)
                     .forEach(key -> {
                         final String value = System.getProperty(key);
+                        if (value == null) { // removed since the index was computed
+                            return;
+                        }
                         properties.put(
                                 key.substring(prefix.length()),
                                 value.contains("${") && value.contains("}") ? substitutor.replace(value) : value);
@@ -284,10 +409,14 @@ public abstract class DefaultConfigurationAdmin implements ConfigurationAdmin {
         }
 
         @Override
-        public void update(final Dictionary<String, ?> properties) {
-            this.properties.clear();
-            loadConfig(pid);
-            this.properties.putAll(converter(properties));
+        public synchronized void update(final Dictionary<String, ?> properties) {
+            overrides = converter(properties);
+            ConfigurationSources.refresh();
+            synchronized (this.properties) {
+                this.properties.clear();
+                loadConfig(pid, this.properties);
+                this.properties.putAll(overrides);
+            }
             this.changeCount.incrementAndGet();
         }
 
@@ -360,6 +489,16 @@ public abstract class DefaultConfigurationAdmin implements ConfigurationAdmin {
             return list(properties.keys()).stream().collect(toMap(identity(), it -> properties.get(it).toString()));
         }
 
+        // placeholders are resolved from the environment, then system properties and finally the local values
+        private Substitutor newSubstitutor(final Map<String, ?> local) {
+            return new Substitutor(emptyMap()) {
+                @Override
+                protected String getOrDefault(final String varName, final String varDefaultValue) {
+                    return ConfigurationSources.lookup(varName, local, varDefaultValue);
+                }
+            };
+        }
+
         private Map<String, String> load(final InputStream stream) {
             final Properties properties = new Properties();
             try {
@@ -367,10 +506,7 @@ public abstract class DefaultConfigurationAdmin implements ConfigurationAdmin {
             } catch (final IOException e) {
                 throw new IllegalArgumentException(e);
             }
-            final Map<String, String> placeholders = new HashMap<>(Map.class.cast(properties));
-            placeholders.putAll(Map.class.cast(System.getProperties()));
-            placeholders.putAll(System.getenv());
-            final Substitutor substitutor = new Substitutor(placeholders);
+            final Substitutor substitutor = newSubstitutor(Map.class.cast(properties));
             return properties.stringPropertyNames().stream().collect(toMap(identity(),
                     it -> {
                         final String value = properties.getProperty(it);
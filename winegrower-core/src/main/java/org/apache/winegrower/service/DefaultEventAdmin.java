@@ -14,16 +14,41 @@
 package org.apache.winegrower.service;
 
 import static java.lang.Thread.sleep;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.Locale.ROOT;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.stream.Collectors.toList;
 import static org.osgi.service.event.TopicPermission.SUBSCRIBE;
 
 import java.io.Closeable;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 
+import org.apache.winegrower.api.BatchEventAdmin;
+import org.apache.winegrower.api.BatchEventHandler;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkUtil;
@@ -31,21 +56,71 @@ import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.event.Event;
-import org.osgi.service.event.EventAdmin;
 import org.osgi.service.event.EventHandler;
 import org.osgi.service.event.TopicPermission;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class DefaultEventAdmin implements BatchEventAdmin, Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DefaultEventAdmin.class);
+    private static final int MAX_EVENTS_PER_DRAIN = 64;
+
+    // event handler service property overriding the configured delivery timeout (ms, 0 disables it)
+    public static final String TIMEOUT_PROPERTY = "winegrower.event.timeout";
 
-// todo: timeout?
-public class DefaultEventAdmin implements EventAdmin, Closeable {
     private final Collection<EventHandlerInstance> listeners;
     private final ExecutorService executor;
+    private final int queueSize;
+    private final RejectionPolicy rejectionPolicy;
+
+    private final AtomicLong queued = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    // handler timeouts, the watchdog is only started when a delivery has a timeout
+    private final long timeout;
+    private final int blacklistThreshold;
+    private final long watchdogPeriod;
+    private final Set<Delivery> runningDeliveries = ConcurrentHashMap.newKeySet();
+    private volatile ScheduledExecutorService scheduler; // watchdog and coalescing windows
+    private final AtomicBoolean watchdogStarted = new AtomicBoolean();
+
+    private final Map<String, Coalescing> coalescings = new ConcurrentHashMap<>();
+
+    // set while the current thread delivers events, it must never wait for another handler queue
+    private final ThreadLocal<Boolean> delivering = new ThreadLocal<>();
+
+    private final PermissionChecker permissionChecker;
+    private final EventAdminMetrics metrics; // null when disabled
 
     public DefaultEventAdmin(final Collection<EventHandlerInstance> listeners,
                              final int poolSize) {
+        this(listeners, new Configuration().setPoolSize(poolSize));
+    }
+
+    public DefaultEventAdmin(final Collection<EventHandlerInstance> listeners,
+                             final Configuration configuration) {
         this.listeners = listeners;
+        this.queueSize = configuration.getQueueSize();
+        this.rejectionPolicy = configuration.getRejectionPolicy();
+        this.timeout = configuration.getTimeout();
+        this.blacklistThreshold = configuration.getBlacklistThreshold();
+        this.watchdogPeriod = configuration.getWatchdogPeriod();
+        this.permissionChecker = configuration.getPermissionChecker();
+        this.metrics = configuration.isMetrics() ? new EventAdminMetrics() : null;
+        if (metrics != null && configuration.isJmx()) {
+            metrics.registerMBean();
+        }
+
+        this.executor = configuration.isVirtualThreads() ?
+                newVirtualThreadExecutor().orElseGet(() -> newPlatformThreadExecutor(configuration.getPoolSize())) :
+                newPlatformThreadExecutor(configuration.getPoolSize());
+    }
 
+    // the executor queue is bounded by the number of handlers (one drain task per handler at most)
+    private static ExecutorService newPlatformThreadExecutor(final int poolSize) {
         final AtomicInteger counter = new AtomicInteger(1);
-        this.executor = Executors.newFixedThreadPool(poolSize, r -> {
+        return Executors.newFixedThreadPool(poolSize, r -> {
             final Thread t = new Thread(r, DefaultEventAdmin.class.getName() + "-" + counter.getAndIncrement());
             if (t.isDaemon()) {
                 t.setDaemon(false);
@@ -57,22 +132,476 @@ public class DefaultEventAdmin implements EventAdmin, Closeable {
         });
     }
 
+    // Java 21 virtual threads, looked up by reflection to keep running on Java 8,
+    // per handler queues keep the ordering even if each drain gets its own thread
+    private static Optional<ExecutorService> newVirtualThreadExecutor() {
+        try {
+            final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            final Class<?> builderType = Class.forName("java.lang.Thread$Builder"); // Thread has no (bootstrap) loader
+            builderType.getMethod("name", String.class, long.class).invoke(builder, DefaultEventAdmin.class.getName() + "-", 1L);
+            final ThreadFactory factory = ThreadFactory.class.cast(builderType.getMethod("factory").invoke(builder));
+            return Optional.of(ExecutorService.class.cast(Executors.class
+                    .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory)));
+        } catch (final ClassNotFoundException | NoSuchMethodException e) {
+            LOGGER.warn("Virtual threads are not available on Java {}, using a platform thread pool",
+                    System.getProperty("java.version"));
+            return Optional.empty();
+        } catch (final InvocationTargetException e) {
+            LOGGER.warn("Can't create a virtual thread executor, using a platform thread pool", e.getTargetException());
+            return Optional.empty();
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            LOGGER.warn("Can't create a virtual thread executor, using a platform thread pool", e);
+            return Optional.empty();
+        }
+    }
+
+    // each handler has its own serial queue so events are delivered in order but handlers run concurrently
     @Override
     public void postEvent(final Event event) {
-        executor.execute(() -> sendEvent(event));
+        postEvents(singletonList(event));
+    }
+
+    @Override
+    public void postEvents(final Collection<Event> events) {
+        final Map<EventHandlerInstance, Boolean> toSchedule = new IdentityHashMap<>();
+        for (final Event event : events) {
+            if (metrics != null) {
+                metrics.onPublish(event.getTopic());
+            }
+            if (coalescings.isEmpty() || !coalesce(event)) {
+                doPost(event, toSchedule);
+            }
+        }
+        toSchedule.keySet().forEach(this::schedule);
+    }
+
+    @Override
+    public void sendEvents(final Collection<Event> events) {
+        events.forEach(this::sendEvent);
+    }
+
+    @Override
+    public void registerCoalescing(final String topic, final String keyProperty, final long windowMs) {
+        final Coalescing previous = coalescings.put(topic, new Coalescing(keyProperty, windowMs));
+        if (previous != null) {
+            flush(previous);
+        }
+    }
+
+    @Override
+    public void unregisterCoalescing(final String topic) {
+        final Coalescing coalescing = coalescings.remove(topic);
+        if (coalescing != null) {
+            flush(coalescing);
+        }
+    }
+
+    private void doPost(final Event event, final Map<EventHandlerInstance, Boolean> toSchedule) {
+        for (final EventHandlerInstance handler : findMatchingHandlers(event)) {
+            if (enqueue(handler, event)) {
+                toSchedule.put(handler, true);
+            }
+        }
+    }
+
+    private boolean coalesce(final Event event) {
+        final Coalescing coalescing = coalescings.get(event.getTopic());
+        if (coalescing == null) {
+            return false;
+        }
+        final Object key = coalescing.keyProperty == null ? null : event.getProperty(coalescing.keyProperty);
+        final boolean schedule;
+        synchronized (coalescing) {
+            schedule = coalescing.pending.isEmpty();
+            coalescing.pending.remove(key); // the latest event takes the place of the previous one in the order
+            coalescing.pending.put(key, event);
+        }
+        if (schedule) {
+            try {
+                getScheduler().schedule(() -> flush(coalescing), coalescing.window, MILLISECONDS);
+            } catch (final RejectedExecutionException ree) { // closed
+                flush(coalescing);
+            }
+        }
+        return true;
+    }
+
+    private void flush(final Coalescing coalescing) {
+        final Collection<Event> events;
+        synchronized (coalescing) {
+            if (coalescing.pending.isEmpty()) {
+                return;
+            }
+            events = new ArrayList<>(coalescing.pending.values());
+            coalescing.pending.clear();
+        }
+        final Map<EventHandlerInstance, Boolean> toSchedule = new IdentityHashMap<>();
+        events.forEach(event -> doPost(event, toSchedule));
+        toSchedule.keySet().forEach(this::schedule);
+    }
+
+    // null when metrics are disabled
+    public EventAdminMetrics getMetrics() {
+        return metrics;
+    }
+
+    // number of posted events waiting for their handler
+    public long getQueuedEvents() {
+        return queued.get();
+    }
+
+    // posted events which were never delivered because of the rejection policy or a blacklisting
+    public long getDroppedEvents() {
+        return dropped.sum();
+    }
+
+    // posted events which hit a full handler queue, whatever the rejection policy did with them
+    public long getRejectedEvents() {
+        return rejected.sum();
+    }
+
+    private boolean enqueue(final EventHandlerInstance handler, final Event event) {
+        if (queueSize <= 0) {
+            doEnqueue(handler, event);
+            return true;
+        }
+        boolean full = false;
+        while (true) {
+            final int size = handler.pendingSize.get();
+            if (size < queueSize) {
+                if (handler.pendingSize.compareAndSet(size, size + 1)) {
+                    handler.pending.add(new QueuedEvent(event, metrics == null ? 0 : System.nanoTime()));
+                    queued.incrementAndGet();
+                    return true;
+                }
+                continue;
+            }
+
+            if (!full) {
+                full = true;
+                rejected.increment();
+            }
+            if (handler.drainer == Thread.currentThread() || delivering.get() != null) {
+                // a handler posts to itself or to another handler: blocking or waiting for a serial slot would
+                // deadlock when this thread is the one draining the queue or the pool is exhausted by such posts,
+                // let the queue exceed its bound
+                doEnqueue(handler, event);
+                return true;
+            }
+            switch (rejectionPolicy) {
+                case DROP_NEWEST:
+                    dropped.increment();
+                    return false;
+                case DROP_OLDEST:
+                    if (handler.pending.poll() != null) {
+                        handler.pendingSize.decrementAndGet();
+                        queued.decrementAndGet();
+                        dropped.increment();
+                    }
+                    break;
+                case CALLER_RUNS:
+                    callerRuns(handler, event);
+                    return false;
+                case BLOCK:
+                default:
+                    schedule(handler); // batches schedule handlers after enqueueing, ensure the queue is drained
+                    synchronized (handler.pending) {
+                        try {
+                            while (handler.pendingSize.get() >= queueSize) {
+                                handler.pending.wait(100);
+                            }
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            dropped.increment();
+                            return false;
+                        }
+                    }
+            }
+        }
+    }
+
+    // the caller takes the handler serial slot and delivers the queued events before its own one to keep the ordering
+    private void callerRuns(final EventHandlerInstance handler, final Event event) {
+        synchronized (handler.pending) {
+            try {
+                while (!handler.scheduled.compareAndSet(false, true)) {
+                    handler.pending.wait(100);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                dropped.increment();
+                return;
+            }
+        }
+        try {
+            while (!handler.pending.isEmpty()) {
+                drainEvents(handler);
+            }
+            handler.drainer = Thread.currentThread();
+            final Boolean wasDelivering = delivering.get();
+            delivering.set(true);
+            try {
+                if (handler.blacklisted) {
+                    dropped.increment();
+                } else {
+                    deliver(handler, event);
+                }
+            } finally {
+                handler.drainer = null;
+                if (wasDelivering == null) {
+                    delivering.remove();
+                }
+            }
+        } finally {
+            releaseSlot(handler);
+        }
+    }
+
+    private void doEnqueue(final EventHandlerInstance handler, final Event event) {
+        handler.pendingSize.incrementAndGet();
+        handler.pending.add(new QueuedEvent(event, metrics == null ? 0 : System.nanoTime()));
+        queued.incrementAndGet();
     }
 
     @Override
     public void sendEvent(final Event event) {
-        final TopicPermission permission = new TopicPermission(event.getTopic(), SUBSCRIBE);
-        listeners.stream()
-                 .filter(l -> l.topics == null || l.bundle.hasPermission(permission))
-                 .filter(l -> l.matches(event))
-                 .forEach(l -> l.handler.handleEvent(event));
+        if (metrics != null) {
+            metrics.onPublish(event.getTopic());
+        }
+        findMatchingHandlers(event).forEach(l -> invoke(l, event));
+    }
+
+    private List<EventHandlerInstance> findMatchingHandlers(final Event event) {
+        final Collection<EventHandlerInstance> candidates = findHandlers(event.getTopic());
+        if (candidates.isEmpty()) {
+            return emptyList();
+        }
+        final Predicate<Bundle> subscribers = permissionChecker.subscribers(event.getTopic());
+        final List<EventHandlerInstance> handlers = new ArrayList<>(candidates.size());
+        for (final EventHandlerInstance candidate : candidates) {
+            if (!candidate.blacklisted
+                    && (subscribers == null || candidate.topics == null || subscribers.test(candidate.bundle))
+                    && candidate.matches(event)) {
+                handlers.add(candidate);
+            }
+        }
+        return handlers;
+    }
+
+    private void schedule(final EventHandlerInstance handler) {
+        if (!handler.pending.isEmpty() && handler.scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> drain(handler));
+            } catch (final RejectedExecutionException ree) { // closed
+                handler.scheduled.set(false);
+                LOGGER.warn("Can't deliver events to {}, event admin is closed", handler.handler);
+            }
+        }
+    }
+
+    private void drain(final EventHandlerInstance handler) {
+        try {
+            drainEvents(handler);
+        } finally {
+            releaseSlot(handler);
+        }
+    }
+
+    private void releaseSlot(final EventHandlerInstance handler) {
+        handler.scheduled.set(false);
+        if (rejectionPolicy == RejectionPolicy.CALLER_RUNS && queueSize > 0) { // callers waiting for the slot
+            synchronized (handler.pending) {
+                handler.pending.notifyAll();
+            }
+        }
+        schedule(handler); // events posted while draining
+    }
+
+    private void drainEvents(final EventHandlerInstance handler) {
+        handler.drainer = Thread.currentThread();
+        final Boolean wasDelivering = delivering.get();
+        delivering.set(true);
+        try {
+            final BatchEventHandler batchHandler = getBatchHandler(handler);
+            if (batchHandler != null) {
+                final List<Event> events = new ArrayList<>();
+                Event event;
+                while (events.size() < MAX_EVENTS_PER_DRAIN && (event = poll(handler)) != null) {
+                    events.add(event);
+                }
+                if (handler.blacklisted) { // since the events were queued
+                    dropped.add(events.size());
+                } else if (!events.isEmpty()) {
+                    deliver(handler, events, () -> batchHandler.handleEvents(events));
+                }
+                return;
+            }
+
+            // bounded to let other handlers use the thread when this one has a lot of events
+            for (int i = 0; i < MAX_EVENTS_PER_DRAIN; i++) {
+                final Event event = poll(handler);
+                if (event == null) {
+                    break;
+                }
+                if (handler.blacklisted) { // since the event was queued
+                    dropped.increment();
+                    continue;
+                }
+                deliver(handler, event, () -> handler.handler.handleEvent(event));
+            }
+        } finally {
+            handler.drainer = null;
+            if (wasDelivering == null) {
+                delivering.remove();
+            }
+        }
+    }
+
+    // only handlers implementing the batch API get batches (one failure/timeout applies to the whole batch)
+    private static BatchEventHandler getBatchHandler(final EventHandlerInstance handler) {
+        if (EventHandlerFactory.class.isInstance(handler.handler)) {
+            return EventHandlerFactory.class.cast(handler.handler).getBatchHandler();
+        }
+        return BatchEventHandler.class.isInstance(handler.handler) ? BatchEventHandler.class.cast(handler.handler) : null;
+    }
+
+    private Event poll(final EventHandlerInstance handler) {
+        final QueuedEvent queuedEvent = handler.pending.poll();
+        if (queuedEvent == null) {
+            return null;
+        }
+        if (metrics != null) {
+            metrics.onQueueWait(System.nanoTime() - queuedEvent.timestamp);
+        }
+        queued.decrementAndGet();
+        if (handler.pendingSize.getAndDecrement() >= queueSize && queueSize > 0
+                && rejectionPolicy == RejectionPolicy.BLOCK) {
+            synchronized (handler.pending) {
+                handler.pending.notifyAll();
+            }
+        }
+        return queuedEvent.event;
+    }
+
+    private void deliver(final EventHandlerInstance handler, final Event event) {
+        deliver(handler, event, () -> handler.handler.handleEvent(event));
+    }
+
+    private void deliver(final EventHandlerInstance handler, final Object events, final Runnable delivery) {
+        try {
+            invoke(handler, events, delivery);
+        } catch (final RuntimeException re) {
+            LOGGER.error("Can't deliver {} to {}", events, handler.handler, re);
+        }
+    }
+
+    private void invoke(final EventHandlerInstance handler, final Event event) {
+        invoke(handler, event, () -> handler.handler.handleEvent(event));
+    }
+
+    private void invoke(final EventHandlerInstance handler, final Object events, final Runnable invocation) {
+        if (metrics == null) {
+            doInvoke(handler, events, invocation);
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            doInvoke(handler, events, invocation);
+        } finally {
+            final long duration = System.nanoTime() - start;
+            if (Event.class.isInstance(events)) {
+                metrics.onDelivery(Event.class.cast(events).getTopic(), handler.metricsName, duration);
+            } else { // batch, the duration is shared by the events
+                final Collection<Event> batch = (Collection<Event>) events;
+                batch.forEach(event -> metrics.onDelivery(event.getTopic(), handler.metricsName, duration / batch.size()));
+            }
+        }
+    }
+
+    private void doInvoke(final EventHandlerInstance handler, final Object events, final Runnable invocation) {
+        final long handlerTimeout = handler.timeout >= 0 ? handler.timeout : timeout;
+        if (handlerTimeout <= 0) {
+            invocation.run();
+            return;
+        }
+
+        final Delivery delivery = new Delivery(handler, events, MILLISECONDS.toNanos(handlerTimeout));
+        ensureWatchdog();
+        runningDeliveries.add(delivery);
+        try {
+            invocation.run();
+        } finally {
+            runningDeliveries.remove(delivery);
+            if (delivery.isExpired(System.nanoTime())) { // finished between two watchdog checks
+                onTimeout(delivery, false);
+            }
+        }
+    }
+
+    private void ensureWatchdog() {
+        if (watchdogStarted.compareAndSet(false, true)) {
+            getScheduler().scheduleAtFixedRate(this::checkTimeouts, watchdogPeriod, watchdogPeriod, MILLISECONDS);
+        }
+    }
+
+    private ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            synchronized (runningDeliveries) {
+                if (scheduler == null) {
+                    scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                        final Thread t = new Thread(r, DefaultEventAdmin.class.getName() + "-scheduler");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                }
+            }
+        }
+        return scheduler;
+    }
+
+    private void checkTimeouts() {
+        final long now = System.nanoTime();
+        runningDeliveries.stream()
+                .filter(delivery -> delivery.isExpired(now))
+                .forEach(delivery -> onTimeout(delivery, true));
+    }
+
+    private void onTimeout(final Delivery delivery, final boolean running) {
+        if (!delivery.reported.compareAndSet(false, true)) {
+            return;
+        }
+        final EventHandlerInstance handler = delivery.handler;
+        final int timeouts = handler.timeouts.incrementAndGet();
+        final String state = running ? "is still running" : "took";
+        if (blacklistThreshold > 0 && timeouts >= blacklistThreshold && !handler.blacklisted) {
+            handler.blacklisted = true;
+            LOGGER.error("Handler {} of bundle {} {} more than {}ms for {} (thread={}), it timed out {} times and is blacklisted",
+                    handler.handler, handler.bundle.getSymbolicName(), state, NANOSECONDS.toMillis(delivery.timeout),
+                    delivery.event, delivery.thread.getName(), timeouts);
+        } else {
+            LOGGER.warn("Handler {} of bundle {} {} more than {}ms for {} (thread={})",
+                    handler.handler, handler.bundle.getSymbolicName(), state, NANOSECONDS.toMillis(delivery.timeout),
+                    delivery.event, delivery.thread.getName());
+        }
+    }
+
+    private Collection<EventHandlerInstance> findHandlers(final String topic) {
+        if (EventHandlerRegistry.class.isInstance(listeners)) {
+            return EventHandlerRegistry.class.cast(listeners).findHandlers(topic);
+        }
+        return listeners.stream().filter(l -> l.matchesTopic(topic)).collect(toList());
     }
 
     @Override
     public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        coalescings.values().forEach(this::flush);
+        if (metrics != null) {
+            metrics.unregisterMBean();
+        }
         executor.shutdown();
         try {
             final int itWait = 250;
@@ -86,12 +615,199 @@ public class DefaultEventAdmin implements EventAdmin, Closeable {
         } catch (final InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+        final Collection<EventHandlerInstance> handlers;
+        synchronized (listeners) {
+            handlers = new ArrayList<>(listeners);
+        }
+        handlers.forEach(EventHandlerInstance::release);
+    }
+
+    /**
+     * Checks handler bundles can subscribe to a topic.
+     */
+    @FunctionalInterface
+    public interface PermissionChecker {
+        // no check at all, default when there is no security manager
+        PermissionChecker NONE = topic -> null;
+
+        // Bundle#hasPermission with a TopicPermission
+        PermissionChecker BUNDLE_PERMISSION = topic -> {
+            final TopicPermission permission = new TopicPermission(topic, SUBSCRIBE);
+            return bundle -> bundle.hasPermission(permission);
+        };
+
+        /**
+         * @param topic the event topic.
+         * @return the test of the handler bundles for this topic or null if all bundles can subscribe.
+         */
+        Predicate<Bundle> subscribers(String topic);
+    }
+
+    public enum RejectionPolicy {
+        BLOCK, DROP_OLDEST, DROP_NEWEST, CALLER_RUNS;
+
+        // accepts "drop-oldest" as well as "DROP_OLDEST"
+        public static RejectionPolicy of(final String value) {
+            return valueOf(value.trim().toUpperCase(ROOT).replace('-', '_'));
+        }
+    }
+
+    public static class Configuration {
+        private int poolSize = Math.max(Runtime.getRuntime().availableProcessors(), 2);
+        private int queueSize = -1; // unbounded
+        private RejectionPolicy rejectionPolicy = RejectionPolicy.BLOCK;
+        private long timeout; // disabled
+        private int blacklistThreshold = 3;
+        private long watchdogPeriod = 500;
+        private boolean virtualThreads;
+        private boolean metrics;
+        private boolean jmx = true;
+        private PermissionChecker permissionChecker = System.getSecurityManager() == null ?
+                PermissionChecker.NONE : PermissionChecker.BUNDLE_PERMISSION;
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public Configuration setPoolSize(final int poolSize) {
+            this.poolSize = poolSize;
+            return this;
+        }
+
+        // max pending posted events per handler, <= 0 means unbounded
+        public int getQueueSize() {
+            return queueSize;
+        }
+
+        public Configuration setQueueSize(final int queueSize) {
+            this.queueSize = queueSize;
+            return this;
+        }
+
+        public RejectionPolicy getRejectionPolicy() {
+            return rejectionPolicy;
+        }
+
+        public Configuration setRejectionPolicy(final RejectionPolicy rejectionPolicy) {
+            this.rejectionPolicy = rejectionPolicy;
+            return this;
+        }
+
+        // max duration of a delivery in ms (<= 0 means no timeout), handlers can override it with TIMEOUT_PROPERTY
+        public long getTimeout() {
+            return timeout;
+        }
+
+        public Configuration setTimeout(final long timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        // number of timeouts after which a handler does not get events anymore, <= 0 means never
+        public int getBlacklistThreshold() {
+            return blacklistThreshold;
+        }
+
+        public Configuration setBlacklistThreshold(final int blacklistThreshold) {
+            this.blacklistThreshold = blacklistThreshold;
+            return this;
+        }
+
+        public PermissionChecker getPermissionChecker() {
+            return permissionChecker;
+        }
+
+        public Configuration setPermissionChecker(final PermissionChecker permissionChecker) {
+            this.permissionChecker = permissionChecker;
+            return this;
+        }
+
+        public boolean isMetrics() {
+            return metrics;
+        }
+
+        public Configuration setMetrics(final boolean metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        // when metrics are enabled, register them as a MBean
+        public boolean isJmx() {
+            return jmx;
+        }
+
+        public Configuration setJmx(final boolean jmx) {
+            this.jmx = jmx;
+            return this;
+        }
+
+        // one virtual thread per handler drain (Java 21+), poolSize is ignored then
+        public boolean isVirtualThreads() {
+            return virtualThreads;
+        }
+
+        public Configuration setVirtualThreads(final boolean virtualThreads) {
+            this.virtualThreads = virtualThreads;
+            return this;
+        }
+
+        public long getWatchdogPeriod() {
+            return watchdogPeriod;
+        }
+
+        public Configuration setWatchdogPeriod(final long watchdogPeriod) {
+            this.watchdogPeriod = watchdogPeriod;
+            return this;
+        }
+    }
+
+    private static class QueuedEvent {
+        private final Event event;
+        private final long timestamp; // only set with metrics
+
+        private QueuedEvent(final Event event, final long timestamp) {
+            this.event = event;
+            this.timestamp = timestamp;
+        }
     }
 
+    private static class Coalescing {
+        private final String keyProperty;
+        private final long window;
+        private final Map<Object, Event> pending = new LinkedHashMap<>(); // guarded by this
+
+        private Coalescing(final String keyProperty, final long window) {
+            this.keyProperty = keyProperty;
+            this.window = window;
+        }
+    }
+
+    private static class Delivery {
+        private final EventHandlerInstance handler;
+        private final Object event; // or events for batches
+        private final Thread thread = Thread.currentThread();
+        private final long start = System.nanoTime();
+        private final long timeout;
+        private final AtomicBoolean reported = new AtomicBoolean();
+
+        private Delivery(final EventHandlerInstance handler, final Object event, final long timeout) {
+            this.handler = handler;
+            this.event = event;
+            this.timeout = timeout;
+        }
+
+        private boolean isExpired(final long now) {
+            return now - start > timeout;
+        }
+    }
+
+    // the factory instance is created on the first event and kept until the registration goes away
     static class EventHandlerFactory implements EventHandler {
         private final Bundle bundle;
         private final ServiceRegistration<EventHandler> registration;
         private final ServiceFactory<EventHandler> factory;
+        private volatile EventHandler instance;
+        private boolean released; // guarded by this
 
         EventHandlerFactory(final Bundle bundle,
                             final ServiceRegistration<EventHandler> registration,
@@ -103,37 +819,159 @@ public class DefaultEventAdmin implements EventAdmin, Closeable {
 
         @Override
         public void handleEvent(final Event event) {
-            final EventHandler service = factory.getService(bundle, registration);
-            try {
+            final EventHandler service = getInstance();
+            if (service != null) {
                 service.handleEvent(event);
-            } finally {
+            }
+        }
+
+        // null if the service is not a batch handler, events are then delivered one by one
+        BatchEventHandler getBatchHandler() {
+            final EventHandler service = getInstance();
+            return BatchEventHandler.class.isInstance(service) ? BatchEventHandler.class.cast(service) : null;
+        }
+
+        boolean isFor(final Object service) {
+            return factory == service;
+        }
+
+        void release() {
+            final EventHandler service;
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                service = instance;
+                instance = null;
+            }
+            if (service != null) {
                 factory.ungetService(bundle, registration, service);
             }
         }
+
+        private EventHandler getInstance() {
+            EventHandler service = instance;
+            if (service == null) {
+                synchronized (this) {
+                    if (released) { // events still queued after the unregistration
+                        return null;
+                    }
+                    service = instance;
+                    if (service == null) {
+                        service = factory.getService(bundle, registration);
+                        instance = service;
+                    }
+                }
+            }
+            return service;
+        }
     }
 
     public static class EventHandlerInstance {
+        private static final String[] NO_KEY = new String[0];
+
         private final Bundle bundle;
         private final EventHandler handler;
         private final String[] topics;
         private final Filter filter;
+        private final String[] requiredKeys; // by the filter
+        private final String metricsName;
+
+        // postEvent serial queue
+        private final Queue<QueuedEvent> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingSize = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean(); // serial slot
+        private volatile Thread drainer; // thread delivering the queued events
+
+        private final long timeout;
+        private final AtomicInteger timeouts = new AtomicInteger();
+        private volatile boolean blacklisted;
 
         EventHandlerInstance(final Bundle bundle,
                                     final EventHandler handler,
                                     final String[] topics,
                                     final String eventFilter) {
+            this(bundle, handler, topics, eventFilter, -1);
+        }
+
+        EventHandlerInstance(final Bundle bundle,
+                             final EventHandler handler,
+                             final String[] topics,
+                             final String eventFilter,
+                             final long timeout) {
+            this(bundle, handler, topics, eventFilter, timeout, null);
+        }
+
+        EventHandlerInstance(final Bundle bundle,
+                             final EventHandler handler,
+                             final String[] topics,
+                             final String eventFilter,
+                             final long timeout,
+                             final FilterCache filterCache) {
             this.bundle = bundle;
             this.handler = handler;
             this.topics = topics;
+            this.timeout = timeout;
+            this.metricsName = bundle.getSymbolicName() + ":" + (EventHandlerFactory.class.isInstance(handler) ?
+                    EventHandlerFactory.class.cast(handler).factory : handler).getClass().getName();
             try {
-                this.filter = eventFilter == null ? null : FrameworkUtil.createFilter(eventFilter);
+                this.filter = eventFilter == null ? null :
+                        (filterCache == null ? FrameworkUtil.createFilter(eventFilter) : filterCache.getFilter(eventFilter));
             } catch (final InvalidSyntaxException e) {
                 throw new IllegalArgumentException(e);
             }
+            this.requiredKeys = filter == null ?
+                    NO_KEY : FilterAnalyzer.findRequiredKeys(filter.toString()).toArray(NO_KEY);
+        }
+
+        // exact, "prefix/*" or "*" topic, see EventHandlerRegistry for the indexed flavor
+        public boolean matchesTopic(final String topic) {
+            if (topics == null) {
+                return true;
+            }
+            for (final String candidate : topics) {
+                if ("*".equals(candidate) || candidate.equals(topic) ||
+                        (candidate.endsWith("/*") && topic.startsWith(candidate.substring(0, candidate.length() - 1)))) {
+                    return true;
+                }
+            }
+            return false;
         }
 
         public boolean matches(final Event event) {
-            return (filter == null || event.matches(filter));
+            if (filter == null) {
+                return true;
+            }
+            for (final String key : requiredKeys) { // cheap rejection before evaluating the filter
+                if (!event.containsProperty(key)) {
+                    return false;
+                }
+            }
+            return event.matches(filter);
+        }
+
+        // handler of the service, the factory one when the service is a ServiceFactory
+        public boolean isFor(final Object service) {
+            return handler == service || (EventHandlerFactory.class.isInstance(handler) &&
+                    EventHandlerFactory.class.cast(handler).isFor(service));
+        }
+
+        // ungets the handler of service factories, no more events are delivered
+        public void release() {
+            if (EventHandlerFactory.class.isInstance(handler)) {
+                EventHandlerFactory.class.cast(handler).release();
+            }
+        }
+
+        public boolean isBlacklisted() {
+            return blacklisted;
+        }
+
+        // a handler (re)added to or removed from the registry starts again with a clean state
+        void resetBlacklist() {
+            timeouts.set(0);
+            blacklisted = false;
         }
 
         public EventHandler getHandler() {
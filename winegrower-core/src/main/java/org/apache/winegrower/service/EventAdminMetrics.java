@@ -0,0 +1,256 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.winegrower.api.EventAdminMetricsMXBean;
+import org.apache.winegrower.api.LatencyStatistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// striped counters and log-linear bucket histograms, only created when metrics are enabled
+public class EventAdminMetrics implements EventAdminMetricsMXBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventAdminMetrics.class);
+
+    // caps the number of topics/handlers to avoid an unbounded memory usage with generated topics
+    private static final int MAX_KEYS = 1024;
+    private static final String OTHER = "<other>";
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> publishedByTopic = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> topicLatencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> handlerLatencies = new ConcurrentHashMap<>();
+    private final Histogram queueWait = new Histogram();
+    private final Histogram execution = new Histogram();
+
+    private volatile ObjectName objectName;
+
+    void onPublish(final String topic) {
+        published.increment();
+        get(publishedByTopic, topic, LongAdder::new).increment();
+    }
+
+    void onQueueWait(final long durationNs) {
+        queueWait.record(durationNs);
+    }
+
+    void onDelivery(final String topic, final String handler, final long durationNs) {
+        delivered.increment();
+        execution.record(durationNs);
+        get(topicLatencies, topic, Histogram::new).record(durationNs);
+        get(handlerLatencies, handler, Histogram::new).record(durationNs);
+    }
+
+    void registerMBean() {
+        try {
+            final ObjectName name = new ObjectName("org.apache.winegrower:type=EventAdmin,name=metrics,id=" +
+                    Integer.toHexString(System.identityHashCode(this)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        } catch (final JMException e) {
+            LOGGER.warn("Can't register event admin metrics MBean", e);
+        }
+    }
+
+    void unregisterMBean() {
+        final ObjectName name = objectName;
+        if (name == null) {
+            return;
+        }
+        objectName = null;
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (final JMException e) {
+            LOGGER.warn("Can't unregister event admin metrics MBean", e);
+        }
+    }
+
+    @Override
+    public long getPublishedEvents() {
+        return published.sum();
+    }
+
+    @Override
+    public long getDeliveredEvents() {
+        return delivered.sum();
+    }
+
+    @Override
+    public Map<String, Long> getPublishedEventsByTopic() {
+        final Map<String, Long> out = new TreeMap<>();
+        publishedByTopic.forEach((topic, counter) -> out.put(topic, counter.sum()));
+        return out;
+    }
+
+    @Override
+    public Map<String, LatencyStatistics> getTopicLatencies() {
+        return snapshot(topicLatencies);
+    }
+
+    @Override
+    public Map<String, LatencyStatistics> getHandlerLatencies() {
+        return snapshot(handlerLatencies);
+    }
+
+    @Override
+    public LatencyStatistics getQueueWait() {
+        return queueWait.snapshot();
+    }
+
+    @Override
+    public LatencyStatistics getExecution() {
+        return execution.snapshot();
+    }
+
+    @Override
+    public void reset() {
+        published.reset();
+        delivered.reset();
+        publishedByTopic.clear();
+        topicLatencies.clear();
+        handlerLatencies.clear();
+        queueWait.reset();
+        execution.reset();
+    }
+
+    private static Map<String, LatencyStatistics> snapshot(final Map<String, Histogram> histograms) {
+        final Map<String, LatencyStatistics> out = new TreeMap<>();
+        histograms.forEach((key, histogram) -> out.put(key, histogram.snapshot()));
+        return out;
+    }
+
+    private static <T> T get(final ConcurrentMap<String, T> values, final String key,
+                             final Supplier<T> factory) {
+        final T existing = values.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        return values.computeIfAbsent(values.size() >= MAX_KEYS ? OTHER : key, k -> factory.get());
+    }
+
+    // log-linear buckets: each power of two of nanoseconds is split in 8 linear sub-buckets (exact under 8ns)
+    // so a percentile, reported as the upper bound of its bucket, is at most 12.5% above the real value.
+    // Buckets are striped counters created on first use, only the few used magnitudes cost memory.
+    private static class Histogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) << SUB_BUCKET_BITS;
+
+        private final AtomicReferenceArray<LongAdder> buckets = new AtomicReferenceArray<>(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        private void record(final long durationNs) {
+            final long value = Math.max(0, durationNs);
+            final int index = indexOf(value);
+            LongAdder bucket = buckets.get(index);
+            if (bucket == null) {
+                final LongAdder created = new LongAdder();
+                bucket = buckets.compareAndSet(index, null, created) ? created : buckets.get(index);
+            }
+            bucket.increment();
+            count.increment();
+            sum.add(value);
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // retry
+            }
+        }
+
+        private void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                final LongAdder bucket = buckets.get(i);
+                if (bucket != null) {
+                    bucket.reset();
+                }
+            }
+            count.reset();
+            sum.reset();
+            max.set(0);
+        }
+
+        private LatencyStatistics snapshot() {
+            final long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                final LongAdder bucket = buckets.get(i);
+                if (bucket != null) {
+                    counts[i] = bucket.sum();
+                    total += counts[i];
+                }
+            }
+            final long events = count.sum();
+            final long maxValue = max.get();
+            return new LatencyStatistics(
+                    events, events == 0 ? 0 : NANOSECONDS.toMicros(sum.sum()) / (double) events,
+                    NANOSECONDS.toMicros(maxValue),
+                    percentile(counts, total, maxValue, .5), percentile(counts, total, maxValue, .9),
+                    percentile(counts, total, maxValue, .99));
+        }
+
+        private static int indexOf(final long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+            final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+        }
+
+        // highest value of the bucket (inclusive)
+        private static long upperBound(final int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+            final long subBucket = index & (SUB_BUCKETS - 1);
+            return ((SUB_BUCKETS + subBucket) << shift) + (1L << shift) - 1;
+        }
+
+        private static long percentile(final long[] counts, final long total, final long max, final double percentile) {
+            if (total == 0) {
+                return 0;
+            }
+            final long threshold = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= threshold) {
+                    return NANOSECONDS.toMicros(Math.min(upperBound(i), max));
+                }
+            }
+            return NANOSECONDS.toMicros(max);
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import static java.util.Collections.emptyList;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * Event handlers indexed by topic (exact, {@code prefix/*} and {@code *}) in a trie.
+ * The trie is rebuilt on (rare) handler registration changes and published atomically so
+ * {@link #findHandlers(String)} never locks and only visits the handlers matching the topic.
+ */
+public class EventHandlerRegistry extends AbstractCollection<DefaultEventAdmin.EventHandlerInstance> {
+    private static final DefaultEventAdmin.EventHandlerInstance[] NO_HANDLER = new DefaultEventAdmin.EventHandlerInstance[0];
+    private static final int[] NO_INDEX = new int[0];
+
+    private volatile State state = new State(NO_HANDLER);
+
+    // handlers matching the topic in registration order
+    public List<DefaultEventAdmin.EventHandlerInstance> findHandlers(final String topic) {
+        final State current = state;
+        if (current.handlers.length == 0) {
+            return emptyList();
+        }
+
+        final BitSet matches = new BitSet(current.handlers.length);
+        Node node = current.root;
+        int start = 0;
+        while (true) {
+            // there is at least one remaining segment so "<node path>/*" handlers match
+            set(matches, node.wildcards);
+            final int end = topic.indexOf('/', start);
+            node = node.children.get(end < 0 ? topic.substring(start) : topic.substring(start, end));
+            if (node == null) {
+                break;
+            }
+            if (end < 0) {
+                set(matches, node.exact);
+                break;
+            }
+            start = end + 1;
+        }
+
+        if (matches.isEmpty()) {
+            return emptyList();
+        }
+        final List<DefaultEventAdmin.EventHandlerInstance> handlers = new ArrayList<>(matches.cardinality());
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            handlers.add(current.handlers[i]);
+        }
+        return handlers;
+    }
+
+    @Override
+    public synchronized boolean add(final DefaultEventAdmin.EventHandlerInstance handler) {
+        handler.resetBlacklist();
+        final DefaultEventAdmin.EventHandlerInstance[] handlers = state.handlers;
+        final DefaultEventAdmin.EventHandlerInstance[] newHandlers = Arrays.copyOf(handlers, handlers.length + 1);
+        newHandlers[handlers.length] = handler;
+        state = new State(newHandlers);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean removeIf(final Predicate<? super DefaultEventAdmin.EventHandlerInstance> filter) {
+        final DefaultEventAdmin.EventHandlerInstance[] handlers = state.handlers;
+        final DefaultEventAdmin.EventHandlerInstance[] newHandlers = Arrays.stream(handlers)
+                .filter(filter.negate())
+                .toArray(DefaultEventAdmin.EventHandlerInstance[]::new);
+        if (newHandlers.length == handlers.length) {
+            return false;
+        }
+        Arrays.stream(handlers).filter(filter).forEach(DefaultEventAdmin.EventHandlerInstance::resetBlacklist);
+        state = new State(newHandlers.length == 0 ? NO_HANDLER : newHandlers);
+        return true;
+    }
+
+    @Override
+    public boolean remove(final Object handler) {
+        return removeIf(it -> it == handler);
+    }
+
+    @Override
+    public synchronized void clear() {
+        state = new State(NO_HANDLER);
+    }
+
+    @Override
+    public Iterator<DefaultEventAdmin.EventHandlerInstance> iterator() { // snapshot iterator
+        final DefaultEventAdmin.EventHandlerInstance[] handlers = state.handlers;
+        return new Iterator<DefaultEventAdmin.EventHandlerInstance>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < handlers.length;
+            }
+
+            @Override
+            public DefaultEventAdmin.EventHandlerInstance next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return handlers[index++];
+            }
+
+            @Override
+            public void remove() {
+                if (index == 0) {
+                    throw new IllegalStateException("next() not called");
+                }
+                EventHandlerRegistry.this.remove(handlers[index - 1]);
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return state.handlers.length;
+    }
+
+    private static void set(final BitSet matches, final int[] indices) {
+        for (final int index : indices) {
+            matches.set(index);
+        }
+    }
+
+    private static final class State {
+        private final DefaultEventAdmin.EventHandlerInstance[] handlers;
+        private final Node root;
+
+        private State(final DefaultEventAdmin.EventHandlerInstance[] handlers) {
+            this.handlers = handlers;
+
+            final Builder builder = new Builder();
+            for (int i = 0; i < handlers.length; i++) {
+                final String[] topics = handlers[i].getTopics();
+                if (topics == null) {
+                    builder.wildcards.add(i);
+                    continue;
+                }
+                for (final String topic : topics) {
+                    if ("*".equals(topic)) {
+                        builder.wildcards.add(i);
+                    } else if (topic.endsWith("/*")) {
+                        builder.child(topic.substring(0, topic.length() - 2)).wildcards.add(i);
+                    } else {
+                        builder.child(topic).exact.add(i);
+                    }
+                }
+            }
+            this.root = builder.build();
+        }
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children;
+        private final int[] exact;
+        private final int[] wildcards;
+
+        private Node(final Map<String, Node> children, final int[] exact, final int[] wildcards) {
+            this.children = children;
+            this.exact = exact;
+            this.wildcards = wildcards;
+        }
+    }
+
+    private static final class Builder {
+        private final Map<String, Builder> children = new HashMap<>();
+        private final Collection<Integer> exact = new ArrayList<>();
+        private final Collection<Integer> wildcards = new ArrayList<>();
+
+        private Builder child(final String path) {
+            Builder current = this;
+            for (final String segment : path.split("/")) {
+                current = current.children.computeIfAbsent(segment, k -> new Builder());
+            }
+            return current;
+        }
+
+        private Node build() {
+            final Map<String, Node> nodes = new HashMap<>(children.size());
+            children.forEach((segment, child) -> nodes.put(segment, child.build()));
+            return new Node(nodes, toArray(exact), toArray(wildcards));
+        }
+
+        private static int[] toArray(final Collection<Integer> indices) {
+            return indices.isEmpty() ? NO_INDEX : indices.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+}
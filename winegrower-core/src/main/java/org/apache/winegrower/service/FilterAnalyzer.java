@@ -0,0 +1,159 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import static java.util.Collections.emptySet;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.osgi.framework.Constants;
+
+// light structural analysis of (already validated) LDAP filters, anything not understood is "unknown" (null)
+final class FilterAnalyzer {
+    private FilterAnalyzer() {
+        // no-op
+    }
+
+    // value of a (objectClass=X) filter or of such a term of a top level conjunction
+    static String findObjectClass(final String filter) {
+        if (filter == null) {
+            return null;
+        }
+        final String value = filter.trim();
+        if (value.startsWith("(&") && value.endsWith(")")) {
+            int depth = 0;
+            int start = -1;
+            for (int i = 2; i < value.length() - 1; i++) {
+                final char c = value.charAt(i);
+                if (c == '\\') {
+                    i++;
+                } else if (c == '(') {
+                    if (depth++ == 0) {
+                        start = i;
+                    }
+                } else if (c == ')') {
+                    depth--;
+                    if (depth == 0) {
+                        final String objectClass = findObjectClass(value.substring(start, i + 1));
+                        if (objectClass != null) {
+                            return objectClass;
+                        }
+                    } else if (depth < 0) {
+                        return null;
+                    }
+                }
+            }
+            return null;
+        }
+        return findSimpleObjectClass(value);
+    }
+
+    // keys which must be present for the filter to match: all keys of a conjunction,
+    // the common ones of a disjunction and none for a negation
+    static Set<String> findRequiredKeys(final String filter) {
+        if (filter == null) {
+            return emptySet();
+        }
+        try {
+            final Set<String> keys = new HashSet<>();
+            parseRequiredKeys(filter.trim(), 0, keys);
+            return keys;
+        } catch (final RuntimeException re) { // unexpected syntax, no pre-screening
+            return emptySet();
+        }
+    }
+
+    // parses the filter starting at index (a '('), fills the required keys and returns the index after its ')'
+    private static int parseRequiredKeys(final String filter, final int index, final Set<String> keys) {
+        if (filter.charAt(index) != '(') {
+            throw new IllegalArgumentException("Expected '(' at " + index + " in " + filter);
+        }
+        int i = skipWhitespaces(filter, index + 1);
+        final char operator = filter.charAt(i);
+        switch (operator) {
+            case '&':
+            case '|':
+                i = skipWhitespaces(filter, i + 1);
+                Set<String> common = null;
+                while (filter.charAt(i) == '(') {
+                    final Set<String> childKeys = new HashSet<>();
+                    i = skipWhitespaces(filter, parseRequiredKeys(filter, i, childKeys));
+                    if (operator == '&') {
+                        keys.addAll(childKeys);
+                    } else if (common == null) {
+                        common = childKeys;
+                    } else {
+                        common.retainAll(childKeys);
+                    }
+                }
+                if (common != null) {
+                    keys.addAll(common);
+                }
+                break;
+            case '!':
+                i = skipWhitespaces(filter, parseRequiredKeys(filter, skipWhitespaces(filter, i + 1), new HashSet<>()));
+                break;
+            default:
+                final int start = i;
+                int attributeEnd = -1;
+                while (filter.charAt(i) != ')') {
+                    final char c = filter.charAt(i);
+                    if (attributeEnd < 0 && (c == '=' || c == '~' || c == '<' || c == '>')) {
+                        attributeEnd = i;
+                    }
+                    if (c == '\\') {
+                        i++;
+                    }
+                    i++;
+                }
+                if (attributeEnd < 0) {
+                    throw new IllegalArgumentException("No operator in " + filter.substring(start, i));
+                }
+                keys.add(filter.substring(start, attributeEnd).trim());
+        }
+        if (filter.charAt(i) != ')') {
+            throw new IllegalArgumentException("Expected ')' at " + i + " in " + filter);
+        }
+        return i + 1;
+    }
+
+    private static int skipWhitespaces(final String filter, final int index) {
+        int i = index;
+        while (i < filter.length() && Character.isWhitespace(filter.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static String findSimpleObjectClass(final String item) {
+        if (!item.startsWith("(") || !item.endsWith(")")) {
+            return null;
+        }
+        final int equals = item.indexOf('=');
+        if (equals < 0 || !Constants.OBJECTCLASS.equalsIgnoreCase(item.substring(1, equals).trim())) {
+            return null;
+        }
+        final String objectClass = item.substring(equals + 1, item.length() - 1);
+        if (objectClass.isEmpty() || !objectClass.trim().equals(objectClass)) {
+            return null;
+        }
+        for (final char c : objectClass.toCharArray()) {
+            if (c == '*' || c == '\\' || c == '(' || c == ')') { // wildcard or escaping, let the filter do its job
+                return null;
+            }
+        }
+        return objectClass;
+    }
+}
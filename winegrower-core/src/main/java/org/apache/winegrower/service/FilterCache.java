@@ -0,0 +1,110 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+
+// compiled filters are immutable so we can share them between all bundles,
+// eviction is a "second chance" one (approximated LRU) to avoid any global lock
+public class FilterCache {
+    private final int maxSize;
+    private final ConcurrentMap<String, Entry> filters = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public FilterCache(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public Filter getFilter(final String filter) throws InvalidSyntaxException {
+        final Entry existing = filters.get(filter);
+        if (existing != null) {
+            existing.used = true;
+            hits.increment();
+            return existing.filter;
+        }
+        misses.increment();
+
+        final Filter compiled = FrameworkUtil.createFilter(filter);
+        if (maxSize <= 0) {
+            return compiled;
+        }
+        while (filters.size() >= maxSize && evict()) {
+            // no-op
+        }
+        final Entry concurrent = filters.putIfAbsent(filter, new Entry(compiled));
+        return concurrent != null ? concurrent.filter : compiled;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        return filters.size();
+    }
+
+    public void clear() {
+        filters.clear();
+    }
+
+    private boolean evict() {
+        // first pass resets the used flags, second one finds a victim for sure if the map is not empty
+        for (int pass = 0; pass < 2; pass++) {
+            final Iterator<Map.Entry<String, Entry>> iterator = filters.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<String, Entry> next = iterator.next();
+                if (next.getValue().used) {
+                    next.getValue().used = false;
+                } else if (filters.remove(next.getKey(), next.getValue())) {
+                    evictions.increment();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "FilterCache{size=" + filters.size() + ", hits=" + hits.sum() + ", misses=" + misses.sum() +
+                ", evictions=" + evictions.sum() + '}';
+    }
+
+    private static class Entry {
+        private final Filter filter;
+        private volatile boolean used;
+
+        private Entry(final Filter filter) {
+            this.filter = filter;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import static java.lang.invoke.MethodType.methodType;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.winegrower.api.InjectedService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// @InjectedService fields of a class hierarchy, computed once per class (see OSGiServices#inject),
+// final fields can't be reliably written so they are skipped
+final class InjectionPlan {
+    private static final Logger LOGGER = LoggerFactory.getLogger(InjectionPlan.class);
+    private static final MethodType SETTER_TYPE = methodType(void.class, Object.class, Object.class);
+    private static final MethodType STATIC_SETTER_TYPE = methodType(void.class, Object.class);
+
+    private final Class<?>[] types;
+    private final MethodHandle[] setters;
+
+    private InjectionPlan(final Class<?>[] types, final MethodHandle[] setters) {
+        this.types = types;
+        this.setters = setters;
+    }
+
+    static InjectionPlan of(final Class<?> type) {
+        final List<Class<?>> types = new ArrayList<>();
+        final List<MethodHandle> setters = new ArrayList<>();
+        final MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (final Field field : current.getDeclaredFields()) {
+                final int modifiers = field.getModifiers();
+                if (!field.isAnnotationPresent(InjectedService.class)) {
+                    continue;
+                }
+                if (Modifier.isFinal(modifiers)) {
+                    LOGGER.warn("Skipping final field {}, it can't be injected", field);
+                    continue;
+                }
+                if (!field.isAccessible()) {
+                    field.setAccessible(true);
+                }
+                try {
+                    final MethodHandle setter = lookup.unreflectSetter(field);
+                    setters.add(Modifier.isStatic(modifiers) ? // ignore the instance to keep a single invocation shape
+                            MethodHandles.dropArguments(setter.asType(STATIC_SETTER_TYPE), 0, Object.class) :
+                            setter.asType(SETTER_TYPE));
+                    types.add(field.getType());
+                } catch (final IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+        return new InjectionPlan(types.toArray(new Class<?>[0]), setters.toArray(new MethodHandle[0]));
+    }
+
+    void inject(final Object instance, final OSGiServices services) {
+        for (int i = 0; i < setters.length; i++) {
+            final Object value = services.findInjection(types[i]);
+            if (value == null) {
+                continue;
+            }
+            try {
+                setters[i].invokeExact(instance, value);
+            } catch (final RuntimeException | Error e) {
+                throw e;
+            } catch (final Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -14,7 +14,6 @@
 package org.apache.winegrower.service;
 
 import org.apache.winegrower.Ripener;
-import org.apache.winegrower.api.InjectedService;
 import org.apache.winegrower.deployer.BundleContextImpl;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -36,7 +35,6 @@ import org.osgi.service.cm.ConfigurationListener;
 import org.osgi.service.cm.ManagedService;
 import org.osgi.service.event.EventConstants;
 import org.osgi.service.event.EventHandler;
-import org.osgi.util.tracker.ServiceTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,10 +47,19 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 import java.util.stream.Stream;
 
+import static java.util.Collections.emptyList;
 import static java.util.Collections.list;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Comparator.comparingLong;
 import static java.util.Optional.ofNullable;
 import static java.util.stream.Collectors.groupingBy;
 import static java.util.stream.Collectors.toList;
@@ -64,13 +71,32 @@ public class OSGiServices {
 
     private final AtomicLong idGenerator = new AtomicLong(1);
 
-    private final Collection<ServiceListenerDefinition> serviceListeners = new ArrayList<>();
-    private final Collection<ServiceRegistrationImpl<?>> services = new ArrayList<>();
+    private final AtomicLong listenerOrderGenerator = new AtomicLong();
+    // listeners we can't route by objectClass, others are in serviceListenersByClass
+    private final Collection<ServiceListenerDefinition> serviceListeners = new CopyOnWriteArrayList<>();
+    private final Map<String, Collection<ServiceListenerDefinition>> serviceListenersByClass = new ConcurrentHashMap<>();
+    private final AtomicReference<RegistrySnapshot> registry = new AtomicReference<>(RegistrySnapshot.empty());
+    private final Object registryLock = new Object(); // snapshots share their storage so writers are serialized
+    private final ClassValue<InjectionPlan> injectionPlans = new ClassValue<InjectionPlan>() {
+        @Override
+        protected InjectionPlan computeValue(final Class<?> type) {
+            return InjectionPlan.of(type);
+        }
+    };
+    private final ClassValue<AtomicReference<TypedLookup>> lookups = new ClassValue<AtomicReference<TypedLookup>>() {
+        @Override
+        protected AtomicReference<TypedLookup> computeValue(final Class<?> type) {
+            return new AtomicReference<>();
+        }
+    };
     private final Hooks hooks = new Hooks();
+    private final FilterCache filterCache = new FilterCache(Integer.getInteger("winegrower.registry.filterCache.size", 512));
+    private final AssignabilityCache assignabilityCache = new AssignabilityCache();
     private final Collection<ConfigurationListener> configurationListeners;
     private final Collection<DefaultEventAdmin.EventHandlerInstance> eventListeners;
     private final Ripener framework;
-    private final Set<String> forcedDeepPropertyRead;
+    private volatile Set<String> forcedDeepPropertyRead;
+    private volatile ConfigurationDispatcher configurationDispatcher;
 
     public OSGiServices(final Ripener framework,
                         final Collection<ConfigurationListener> configurationListeners,
@@ -78,104 +104,247 @@ public class OSGiServices {
         this.framework = framework;
         this.configurationListeners = configurationListeners;
         this.eventListeners = eventListeners;
-        this.forcedDeepPropertyRead = Stream.of(System.getProperty(
+        this.forcedDeepPropertyRead = readForcedDeepPropertyRead();
+    }
+
+    private Set<String> readForcedDeepPropertyRead() {
+        return Stream.of(System.getProperty(
                 "winegrower.registry.forcedDeepReadProperties", "org.osgi.service.http.port").split(","))
                 .collect(toSet());
     }
 
+    /**
+     * Service properties resolve their system property overrides at registration time,
+     * this method enables to take into account system properties changes (including
+     * {@code winegrower.registry.forcedDeepReadProperties}) for already registered services.
+     */
+    public void refreshProperties() {
+        forcedDeepPropertyRead = readForcedDeepPropertyRead();
+        ConfigurationSources.refresh();
+        for (final ServiceRegistration<?> registration : getServices()) {
+            final ServiceReferenceImpl<?> reference = ServiceReferenceImpl.class.cast(registration.getReference());
+            final Dictionary<String, Object> properties = reference.getProperties();
+            if (ServiceProperties.class.isInstance(properties)) {
+                reference.setProperties(ServiceProperties.class.cast(properties).resolve(forcedDeepPropertyRead));
+            }
+        }
+        updateRegistry(RegistrySnapshot::reindex); // ranking can have changed
+    }
+
     public Hooks getHooks() {
         return hooks;
     }
 
+    public FilterCache getFilterCache() {
+        return filterCache;
+    }
+
+    public AssignabilityCache getAssignabilityCache() {
+        return assignabilityCache;
+    }
+
     public <T> T inject(final T instance) {
-        doInject(instance.getClass(), instance);
+        injectionPlans.get(instance.getClass()).inject(instance, this);
         return instance;
     }
 
-    private <T> void doInject(final Class<?> typeScope, final T instance) {
-        if (typeScope == null || typeScope == Object.class) {
-            return;
+    // value of an @InjectedService field, null if there is none
+    Object findInjection(final Class<?> type) {
+        if (Ripener.class == type) {
+            return framework;
         }
-        Stream.of(typeScope.getDeclaredFields())
-              .filter(field -> field.isAnnotationPresent(InjectedService.class))
-              .peek(field -> {
-                  if (!field.isAccessible()) {
-                      field.setAccessible(true);
-                  }
-              })
-              .forEach(field -> {
-                  if (Ripener.class == field.getType()) {
-                      try {
-                          field.set(instance, framework);
-                      } catch (final IllegalAccessException e) {
-                          throw new IllegalStateException(e);
-                      }
-                  } else if (OSGiServices.class == field.getType()) {
-                      try {
-                          field.set(instance, framework.getServices());
-                      } catch (final IllegalAccessException e) {
-                          throw new IllegalStateException(e);
-                      }
-                  } else {
-                      findService(field.getType())
-                              .ifPresent(value -> {
-                                  try {
-                                      field.set(instance, value);
-                                  } catch (final IllegalAccessException e) {
-                                      throw new IllegalStateException(e);
-                                  }
-                              });
-                  }
-              });
-        doInject(typeScope.getSuperclass(), instance);
+        if (OSGiServices.class == type) {
+            return framework.getServices();
+        }
+        final Optional<? extends ServiceReference<?>> reference = findServiceReference(type);
+        return reference.isPresent() ? getFrameworkContext().getService(reference.get()) : null;
     }
 
     public <T> Optional<T> findService(final Class<T> type) {
-        final Bundle bundle = framework.getRegistry().getBundles().get(0L).getBundle();
-        final ServiceTracker<T, T> tracker = new ServiceTracker<>(bundle.getBundleContext(), type, null);
-        tracker.open();
-        try {
-            return ofNullable(tracker.waitForService(0L));
-        } catch (final InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new IllegalStateException(e);
+        return findServiceReference(type).map(reference -> getFrameworkContext().getService(reference));
+    }
+
+    // cached until the registry changes (see getGeneration()), it does not register any listener
+    public <T> Optional<ServiceReference<T>> findServiceReference(final Class<T> type) {
+        final AtomicReference<TypedLookup> holder = lookups.get(type);
+        final long generation = getGeneration();
+        final TypedLookup cached = holder.get();
+        if (cached != null && cached.generation == generation) {
+            return (Optional<ServiceReference<T>>) (Optional<?>) cached.reference;
         }
+        final Optional<ServiceReference<T>> reference = ofNullable(getFrameworkContext().getServiceReference(type));
+        holder.set(new TypedLookup(generation, reference));
+        return reference;
+    }
+
+    private BundleContext getFrameworkContext() {
+        return framework.getRegistry().getBundles().get(0L).getBundle().getBundleContext();
     }
 
     public void addListener(final ServiceListener listener, final Filter filter,
                                          final BundleContext context) {
-        synchronized (serviceListeners) {
-            serviceListeners.add(new ServiceListenerDefinition(listener, filter, context));
+        final String filterValue = filter == null ? null : filter.toString();
+        final String objectClass = FilterAnalyzer.findObjectClass(filterValue);
+        final ServiceListenerDefinition definition = new ServiceListenerDefinition(
+                listener, filter, context, listenerOrderGenerator.getAndIncrement(),
+                objectClass != null && !filterValue.startsWith("(&"));
+        if (objectClass == null) {
+            serviceListeners.add(definition);
+        } else {
+            // compute to not race with the removal of an empty bucket
+            serviceListenersByClass.compute(objectClass, (k, listeners) -> {
+                final Collection<ServiceListenerDefinition> bucket = listeners == null ? new CopyOnWriteArrayList<>() : listeners;
+                bucket.add(definition);
+                return bucket;
+            });
         }
     }
 
     public void removeListener(final ServiceListener listener) {
-        synchronized (serviceListeners) {
-            serviceListeners.removeIf(d -> d.listener == listener);
-        }
+        serviceListeners.removeIf(d -> d.listener == listener);
+        serviceListenersByClass.keySet().forEach(objectClass -> serviceListenersByClass.computeIfPresent(objectClass, (k, listeners) -> {
+            listeners.removeIf(d -> d.listener == listener);
+            return listeners.isEmpty() ? null : listeners; // don't keep a bucket per objectClass ever listened
+        }));
     }
 
     public ServiceRegistration<?> registerService(final String[] classes, final Object service,
                                                                final Dictionary<String, ?> properties,
                                                                final Bundle from) {
-        final Hashtable<String, Object> serviceProperties = new Hashtable<String, Object>() {
-            @Override
-            public Object get(final Object key) {
-                final String property = System.getProperty(String.valueOf(key));
-                if (forcedDeepPropertyRead.contains(key)) { // http.port for ex
-                    final Object overridenValue = super.get(key);
-                    if (overridenValue != null) {
-                        return overridenValue;
+        return registerServices(singletonList(new ServiceDefinition(classes, service, properties)), from).get(0);
+    }
+
+    /**
+     * Registers all the services at once: ids are reserved in one step, the registry is updated once
+     * and each listener gets its REGISTERED events (in definitions order) in a single pass.
+     *
+     * @param definitions the services to register.
+     * @param from the bundle registering the services.
+     * @return the registrations in the same order as the definitions.
+     */
+    public List<ServiceRegistration<?>> registerServices(final List<ServiceDefinition> definitions, final Bundle from) {
+        if (definitions.isEmpty()) {
+            return emptyList();
+        }
+
+        long id = idGenerator.getAndAdd(definitions.size());
+        final List<ServiceRegistrationImpl<?>> registrations = new ArrayList<>(definitions.size());
+        final List<Runnable> listenerRegistrations = new ArrayList<>();
+        for (final ServiceDefinition definition : definitions) {
+            registrations.add(prepareRegistration(
+                    definition.getClasses(), definition.getService(), definition.getProperties(), from, id++,
+                    listenerRegistrations));
+        }
+        // once all the definitions are valid, an invalid one must not leak the listeners of the previous ones
+        listenerRegistrations.forEach(Runnable::run);
+
+        updateRegistry(snapshot -> snapshot.with(registrations));
+
+        for (int i = 0; i < registrations.size(); i++) {
+            final Object service = definitions.get(i).getService();
+            if (ManagedService.class.isInstance(service)) {
+                final ServiceReference<?> reference = registrations.get(i).getReference();
+                final ConfigurationDispatcher dispatcher = configurationDispatcher;
+                if (dispatcher == null) {
+                    try {
+                        ManagedService.class.cast(service).updated(toHashtable(reference.getProperties()));
+                    } catch (final ConfigurationException e) {
+                        throw new IllegalStateException(e);
                     }
+                } else {
+                    final Object pid = reference.getProperty(Constants.SERVICE_PID);
+                    dispatcher.dispatch(pid == null ? null : asStream(pid).findFirst().orElse(null), service,
+                            () -> updateManagedService(ManagedService.class.cast(service), pid, reference.getProperties()));
                 }
-                return property != null ? property : super.get(key);
             }
-        };
+        }
+        fireRegisteredEvents(registrations);
+        registrations.forEach(this::addHooks);
+
+        return unmodifiableList(registrations);
+    }
+
+    private void addHooks(final ServiceRegistrationImpl<?> registration) {
+        final ServiceReference<?> ref = registration.getReference();
+        for (final String clazz : registration.getClasses()) {
+            if (FindHook.class.getName().equals(clazz)) {
+                hooks.getServiceFindHooks().add((ServiceReference<FindHook>) ref);
+            } else if (org.osgi.framework.hooks.bundle.FindHook.class.getName().equals(clazz)) {
+                hooks.getBundleFindHooks().add((ServiceReference<org.osgi.framework.hooks.bundle.FindHook>) ref);
+            } else if (EventListenerHook.class.getName().equals(clazz)) {
+                hooks.getEventListenerHooks().add((ServiceReference<EventListenerHook>) ref);
+            }
+        }
+    }
+
+    // propagates a configuration change to the services registered with this pid: their properties are merged
+    // with the configuration like at registration time (see initConfiguration) then managed services are updated
+    public void updateManagedServices(final String pid, final Dictionary<String, ?> properties) {
+        boolean reindex = false;
+        for (final ServiceRegistration<?> registration : getServices()) {
+            final ServiceReferenceImpl<?> reference = ServiceReferenceImpl.class.cast(registration.getReference());
+            final Object servicePid = reference.getProperty(Constants.SERVICE_PID);
+            if (servicePid == null || asStream(servicePid).noneMatch(pid::equals)) {
+                continue;
+            }
+            final Dictionary<String, Object> current = reference.getProperties();
+            if (properties != null && ServiceProperties.class.isInstance(current)) {
+                final ServiceProperties merged = ServiceProperties.class.cast(current).with(properties, forcedDeepPropertyRead);
+                final int ranking = reference.getRanking();
+                reference.setProperties(merged);
+                registration.setProperties(merged);
+                reindex |= ranking != reference.getRanking();
+            }
+
+            final Object service = reference.getReference();
+            if (reference.hasFactory() || !ManagedService.class.isInstance(service)) {
+                continue;
+            }
+            final Dictionary<String, ?> serviceProperties = reference.getProperties();
+            final ConfigurationDispatcher dispatcher = configurationDispatcher;
+            if (dispatcher == null) {
+                updateManagedService(ManagedService.class.cast(service), pid, serviceProperties);
+            } else {
+                dispatcher.dispatch(pid, service, () -> updateManagedService(ManagedService.class.cast(service), pid, serviceProperties));
+            }
+        }
+        if (reindex) {
+            updateRegistry(RegistrySnapshot::reindex);
+        }
+    }
+
+    private void updateManagedService(final ManagedService service, final Object pid, final Dictionary<String, ?> properties) {
+        try {
+            service.updated(toHashtable(properties));
+        } catch (final ConfigurationException | RuntimeException e) {
+            LOGGER.error("Can't update {} with configuration {}", service, pid, e);
+        }
+    }
+
+    // user callbacks get their own mutable copy, registration properties stay immutable
+    private static Hashtable<String, Object> toHashtable(final Dictionary<String, ?> properties) {
+        final Hashtable<String, Object> copy = new Hashtable<>();
+        if (properties != null) {
+            list(properties.keys()).forEach(key -> copy.put(key, properties.get(key)));
+        }
+        return copy;
+    }
+
+    // when set, ManagedService updates are asynchronous (serialized per pid)
+    public void setConfigurationDispatcher(final ConfigurationDispatcher configurationDispatcher) {
+        this.configurationDispatcher = configurationDispatcher;
+    }
+
+    private ServiceRegistrationImpl<Object> prepareRegistration(final String[] classes, final Object service,
+                                                                final Dictionary<String, ?> properties,
+                                                                final Bundle from, final long id,
+                                                                final Collection<Runnable> listenerRegistrations) {
+        final Hashtable<String, Object> serviceProperties = new Hashtable<>();
         if (properties != null) {
             list(properties.keys()).forEach(key -> serviceProperties.put(key, properties.get(key)));
         }
         serviceProperties.put(Constants.OBJECTCLASS, classes.length == 1 ? classes[0] : classes);
-        serviceProperties.put(Constants.SERVICE_ID, idGenerator.getAndIncrement());
+        serviceProperties.put(Constants.SERVICE_ID, id);
         serviceProperties.put(Constants.SERVICE_BUNDLEID, from.getBundleId());
         if (ServiceFactory.class.isInstance(service)) {
             serviceProperties.put(Constants.SERVICE_SCOPE, PrototypeServiceFactory.class.isInstance(service) ?
@@ -184,11 +353,28 @@ public class OSGiServices {
             serviceProperties.put(Constants.SERVICE_SCOPE, Constants.SCOPE_SINGLETON);
         }
 
+        final Object pid = serviceProperties.get(Constants.SERVICE_PID);
+        if (pid != null) {
+            final ConfigurationAdmin configurationAdmin = framework.getConfigurationAdmin();
+            asStream(pid).forEach(it -> initConfiguration(serviceProperties, configurationAdmin, it));
+        }
+
+        final Object factoryPid = serviceProperties.get("service.factoryPid");
+        if (factoryPid != null) {
+            final ConfigurationAdmin configurationAdmin = framework.getConfigurationAdmin();
+            asStream(factoryPid).forEach(it -> initFactoryConfiguration(serviceProperties, configurationAdmin, it));
+        }
+
+        // from here properties are immutable, overrides are resolved once for all
+        final ServiceProperties resolvedProperties = ServiceProperties.of(serviceProperties, forcedDeepPropertyRead);
+
         final boolean isConfigListener = Stream.of(classes).anyMatch(it -> it.equals(ConfigurationListener.class.getName()));
         if (isConfigListener) {
-            synchronized (configurationListeners) {
-                configurationListeners.add(ConfigurationListener.class.cast(service));
-            }
+            listenerRegistrations.add(() -> {
+                synchronized (configurationListeners) {
+                    configurationListeners.add(ConfigurationListener.class.cast(service));
+                }
+            });
         }
 
         boolean isEventHandler = Stream.of(classes).anyMatch(it -> it.equals(EventHandler.class.getName()));
@@ -196,14 +382,12 @@ public class OSGiServices {
         final boolean serviceFindHook = Stream.of(classes).anyMatch(it -> it.equals(FindHook.class.getName()));
         final boolean bundleFindHook = Stream.of(classes).anyMatch(it -> it.equals(org.osgi.framework.hooks.bundle.FindHook.class.getName()));
         final boolean eventListenerHook = Stream.of(classes).anyMatch(it -> it.equals(EventListenerHook.class.getName()));
-        final ServiceReferenceImpl<Object> ref = new ServiceReferenceImpl<>(serviceProperties, from, service);
+        final ServiceReferenceImpl<Object> ref = new ServiceReferenceImpl<>(resolvedProperties, from, service);
         final ServiceRegistrationImpl<Object> registration = new ServiceRegistrationImpl<>(classes,
-                serviceProperties, ref, reg -> {
+                assignabilityCache.getAssignableTypes(from, classes), resolvedProperties, ref, reg -> {
             final ServiceEvent event = new ServiceEvent(ServiceEvent.UNREGISTERING, reg.getReference());
             fireEvent(reg, event);
-            synchronized (OSGiServices.this) {
-                services.remove(reg);
-            }
+            updateRegistry(snapshot -> snapshot.without(ServiceRegistrationImpl.class.cast(reg)));
 
             if (isConfigListener) {
                 synchronized (configurationListeners) {
@@ -211,9 +395,11 @@ public class OSGiServices {
                 }
             }
             if (removeEventHandler) {
+                final Collection<DefaultEventAdmin.EventHandlerInstance> removed = new ArrayList<>(1);
                 synchronized (eventListeners) {
-                    eventListeners.removeIf(it -> it.getHandler() == service);
+                    eventListeners.removeIf(it -> it.isFor(service) && removed.add(it));
                 }
+                removed.forEach(DefaultEventAdmin.EventHandlerInstance::release);
             }
             if (serviceFindHook) {
                 hooks.getServiceFindHooks().remove(ref);
@@ -231,59 +417,33 @@ public class OSGiServices {
             final String[] topicsArray = String[].class.isInstance(topics) ?
                     String[].class.cast(topics) :
                     (String.class.isInstance(topics) ? new String[]{ String.class.cast(topics)} :
-                    Collection.class.isInstance(properties) ?
+                    Collection.class.isInstance(topics) ?
                             ((Collection<Object>) topics).stream().map(String::valueOf).toArray(String[]::new) :
                             null);
             if (topics == null) {
                 LOGGER.warn("No topic for {}", service);
             } else {
-                synchronized (eventListeners) {
-                    eventListeners.add(new DefaultEventAdmin.EventHandlerInstance(
-                            from,
-                            EventHandler.class.isInstance(service) ?
-                                    EventHandler.class.cast(service) :
-                                    new DefaultEventAdmin.EventHandlerFactory(
-                                            from, ServiceRegistration.class.cast(registration),
-                                            ServiceFactory.class.cast(service)),
-                            Stream.of(topicsArray).anyMatch("*"::equals) ? null : topicsArray,
-                            ofNullable(properties.get(EventConstants.EVENT_FILTER)).map(String::valueOf).orElse(null)));
-                }
-            }
-        }
-
-        final Object pid = serviceProperties.get(Constants.SERVICE_PID);
-        if (pid != null) {
-            final ConfigurationAdmin configurationAdmin = framework.getConfigurationAdmin();
-            asStream(pid).forEach(it -> initConfiguration(serviceProperties, configurationAdmin, it));
-        }
-
-        final Object factoryPid = serviceProperties.get("service.factoryPid");
-        if (factoryPid != null) {
-            final ConfigurationAdmin configurationAdmin = framework.getConfigurationAdmin();
-            asStream(factoryPid).forEach(it -> initFactoryConfiguration(serviceProperties, configurationAdmin, it));
-        }
-
-        services.add(registration);
-
-        final ServiceEvent event = new ServiceEvent(ServiceEvent.REGISTERED, ref);
-        if (ManagedService.class.isInstance(service)) {
-            try {
-                ManagedService.class.cast(service).updated(serviceProperties);
-            } catch (final ConfigurationException e) {
-                throw new IllegalStateException(e);
+                final DefaultEventAdmin.EventHandlerInstance eventHandler = new DefaultEventAdmin.EventHandlerInstance(
+                        from,
+                        EventHandler.class.isInstance(service) ?
+                                EventHandler.class.cast(service) :
+                                new DefaultEventAdmin.EventHandlerFactory(
+                                        from, ServiceRegistration.class.cast(registration),
+                                        ServiceFactory.class.cast(service)),
+                        Stream.of(topicsArray).anyMatch("*"::equals) ? null : topicsArray,
+                        ofNullable(properties.get(EventConstants.EVENT_FILTER)).map(String::valueOf).orElse(null),
+                        ofNullable(properties.get(DefaultEventAdmin.TIMEOUT_PROPERTY))
+                                .map(it -> Number.class.isInstance(it) ?
+                                        Number.class.cast(it).longValue() : Long.parseLong(String.valueOf(it).trim()))
+                                .orElse(-1L),
+                        filterCache);
+                listenerRegistrations.add(() -> {
+                    synchronized (eventListeners) {
+                        eventListeners.add(eventHandler);
+                    }
+                });
             }
         }
-        fireEvent(registration, event);
-
-        if (serviceFindHook) {
-            hooks.getServiceFindHooks().add(ServiceReference.class.cast(ref));
-        }
-        if (bundleFindHook) {
-            hooks.getBundleFindHooks().add(ServiceReference.class.cast(ref));
-        }
-        if (eventListenerHook) {
-            hooks.getEventListenerHooks().add(ServiceReference.class.cast(ref));
-        }
 
         return registration;
     }
@@ -326,6 +486,28 @@ public class OSGiServices {
 
     private void fireEvent(final ServiceRegistration<?> reg, final ServiceEvent event) {
         final List<ServiceListenerDefinition> listeners = getListeners(reg);
+        invokeEventListenerHooks(event, listeners);
+        listeners.forEach(listener -> listener.listener.serviceChanged(event));
+    }
+
+    // each listener gets all its events in a row, events keep the registrations order
+    private void fireRegisteredEvents(final List<ServiceRegistrationImpl<?>> registrations) {
+        if (registrations.size() == 1) {
+            final ServiceRegistrationImpl<?> registration = registrations.get(0);
+            fireEvent(registration, new ServiceEvent(ServiceEvent.REGISTERED, registration.getReference()));
+            return;
+        }
+        final Map<ServiceListenerDefinition, List<ServiceEvent>> eventsByListener = new TreeMap<>(comparingLong(it -> it.order));
+        for (final ServiceRegistrationImpl<?> registration : registrations) {
+            final ServiceEvent event = new ServiceEvent(ServiceEvent.REGISTERED, registration.getReference());
+            final List<ServiceListenerDefinition> listeners = getListeners(registration);
+            invokeEventListenerHooks(event, listeners);
+            listeners.forEach(listener -> eventsByListener.computeIfAbsent(listener, k -> new ArrayList<>()).add(event));
+        }
+        eventsByListener.forEach((listener, events) -> events.forEach(listener.listener::serviceChanged));
+    }
+
+    private void invokeEventListenerHooks(final ServiceEvent event, final List<ServiceListenerDefinition> listeners) {
         final Collection<ServiceReference<EventListenerHook>> eventListenerHooks = hooks.getEventListenerHooks();
         if (!eventListenerHooks.isEmpty() && !listeners.isEmpty()) {
             eventListenerHooks.forEach(hook -> {
@@ -344,33 +526,90 @@ public class OSGiServices {
                 }
             });
         }
-        listeners.forEach(listener -> listener.listener.serviceChanged(event));
     }
 
     private List<ServiceListenerDefinition> getListeners(final ServiceRegistration<?> reg) {
-        final List<ServiceListenerDefinition> copy;
-        synchronized (serviceListeners) {
-            copy = new ArrayList<>(serviceListeners);
+        final ServiceReference<?> reference = reg.getReference();
+        final List<ServiceListenerDefinition> listeners = new ArrayList<>();
+        for (final ServiceListenerDefinition definition : serviceListeners) {
+            if (definition.matches(reference)) {
+                listeners.add(definition);
+            }
+        }
+        boolean indexed = false;
+        for (final String clazz : ServiceRegistrationImpl.class.cast(reg).getClasses()) {
+            final Collection<ServiceListenerDefinition> byClass = serviceListenersByClass.get(clazz);
+            if (byClass == null) {
+                continue;
+            }
+            for (final ServiceListenerDefinition definition : byClass) {
+                if (definition.matches(reference)) {
+                    listeners.add(definition);
+                    indexed = true;
+                }
+            }
         }
-        return copy.stream()
-                .filter(it -> it.filter == null || it.filter.match(reg.getReference()))
-                .collect(toList());
+        if (indexed && listeners.size() > 1) { // keep the registration order of the listeners
+            listeners.sort(comparingLong(it -> it.order));
+        }
+        return listeners;
+    }
+
+    // immutable snapshot of the registrations in registration order
+    public Collection<ServiceRegistration<?>> getServices() {
+        return registry.get().getServices();
+    }
+
+    // registrations exposing this objectClass or a subtype of it (sorted by ranking)
+    public Collection<ServiceRegistration<?>> getServices(final String clazz) {
+        return registry.get().getServices(clazz);
+    }
+
+    // highest ranking then lowest id registration exposing this objectClass or a subtype of it
+    public ServiceRegistration<?> getBestService(final String clazz) {
+        return registry.get().getBestService(clazz);
+    }
+
+    private void updateRegistry(final UnaryOperator<RegistrySnapshot> update) {
+        synchronized (registryLock) {
+            registry.set(update.apply(registry.get()));
+        }
+    }
+
+    // incremented on each registry change, enables caches to check they are still up to date cheaply
+    public long getGeneration() {
+        return registry.get().getGeneration();
     }
 
-    public synchronized Collection<ServiceRegistration<?>> getServices() {
-        return new ArrayList<>(services);
+    private static class TypedLookup {
+        private final long generation;
+        private final Optional<? extends ServiceReference<?>> reference;
+
+        private TypedLookup(final long generation, final Optional<? extends ServiceReference<?>> reference) {
+            this.generation = generation;
+            this.reference = reference;
+        }
     }
 
     private static class ServiceListenerDefinition implements ListenerHook.ListenerInfo {
         private final ServiceListener listener;
         private final Filter filter;
         private final BundleContext context;
+        private final long order;
+        private final boolean objectClassOnly; // the index already did the filtering
 
         private ServiceListenerDefinition(final ServiceListener listener, final Filter filter,
-                                          final BundleContext context) {
+                                          final BundleContext context, final long order,
+                                          final boolean objectClassOnly) {
             this.listener = listener;
             this.filter = filter;
             this.context = context;
+            this.order = order;
+            this.objectClassOnly = objectClassOnly;
+        }
+
+        private boolean matches(final ServiceReference<?> reference) {
+            return filter == null || objectClassOnly || filter.match(reference);
         }
 
         @Override
@@ -385,7 +624,7 @@ public class OSGiServices {
 
         @Override
         public String getFilter() {
-            return filter.toString();
+            return filter == null ? null : filter.toString();
         }
 
         @Override
@@ -0,0 +1,166 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.osgi.framework.ServiceRegistration;
+
+// state of the registry, readers never lock nor copy.
+// The registrations of a snapshot never change: writers append past its size (the array has spare capacity)
+// or copy the array when removing one. Index buckets are immutable sorted arrays shared by all the snapshots,
+// a write only replaces the buckets of the types it touches. Writers must be serialized (see OSGiServices).
+final class RegistrySnapshot {
+    // best service first
+    private static final Comparator<ServiceRegistrationImpl<?>> BEST_FIRST = (r1, r2) ->
+            ServiceReferenceImpl.class.cast(r2.getReference()).compareTo(r1.getReference());
+
+    private static final ServiceRegistrationImpl<?>[] NO_REGISTRATION = new ServiceRegistrationImpl<?>[0];
+
+    private final long generation;
+    private final ServiceRegistrationImpl<?>[] services; // registration order, only the first size ones belong to this snapshot
+    private final int size;
+    private final ConcurrentMap<String, ServiceRegistrationImpl<?>[]> servicesByClass;
+
+    private RegistrySnapshot(final long generation,
+                             final ServiceRegistrationImpl<?>[] services, final int size,
+                             final ConcurrentMap<String, ServiceRegistrationImpl<?>[]> servicesByClass) {
+        this.generation = generation;
+        this.services = services;
+        this.size = size;
+        this.servicesByClass = servicesByClass;
+    }
+
+    static RegistrySnapshot empty() {
+        return new RegistrySnapshot(0, NO_REGISTRATION, 0, new ConcurrentHashMap<>());
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    List<ServiceRegistration<?>> getServices() {
+        return unmodifiableList(asList(services).subList(0, size));
+    }
+
+    List<ServiceRegistration<?>> getServices(final String clazz) {
+        final ServiceRegistrationImpl<?>[] registrations = servicesByClass.get(clazz);
+        return registrations == null ? emptyList() : unmodifiableList(asList(registrations));
+    }
+
+    ServiceRegistrationImpl<?> getBestService(final String clazz) {
+        final ServiceRegistrationImpl<?>[] registrations = servicesByClass.get(clazz);
+        return registrations == null ? null : registrations[0];
+    }
+
+    RegistrySnapshot with(final Collection<? extends ServiceRegistrationImpl<?>> registrations) {
+        final int newSize = size + registrations.size();
+        final ServiceRegistrationImpl<?>[] newServices = newSize <= services.length ?
+                services : Arrays.copyOf(services, Math.max(newSize, Math.max(16, services.length * 2)));
+        int index = size;
+        for (final ServiceRegistrationImpl<?> registration : registrations) {
+            newServices[index++] = registration;
+            for (final String clazz : registration.getAssignableTypes()) {
+                servicesByClass.put(clazz, insert(servicesByClass.get(clazz), registration));
+            }
+        }
+        return new RegistrySnapshot(generation + 1, newServices, newSize, servicesByClass);
+    }
+
+    RegistrySnapshot without(final ServiceRegistrationImpl<?> registration) {
+        final int index = indexOf(services, size, registration);
+        if (index < 0) {
+            return this;
+        }
+        for (final String clazz : registration.getAssignableTypes()) {
+            final ServiceRegistrationImpl<?>[] remaining = remove(servicesByClass.get(clazz), registration);
+            if (remaining == null) {
+                servicesByClass.remove(clazz);
+            } else {
+                servicesByClass.put(clazz, remaining);
+            }
+        }
+        // this snapshot can still be read so the removal needs a copy, it keeps the spare capacity
+        final ServiceRegistrationImpl<?>[] newServices = new ServiceRegistrationImpl<?>[services.length];
+        System.arraycopy(services, 0, newServices, 0, index);
+        System.arraycopy(services, index + 1, newServices, index, size - index - 1);
+        return new RegistrySnapshot(generation + 1, newServices, size - 1, servicesByClass);
+    }
+
+    // when the ranking of registrations changed, new generation since the best services can be different
+    RegistrySnapshot reindex() {
+        servicesByClass.replaceAll((clazz, registrations) -> {
+            final ServiceRegistrationImpl<?>[] sorted = registrations.clone();
+            Arrays.sort(sorted, BEST_FIRST);
+            return sorted;
+        });
+        return new RegistrySnapshot(generation + 1, services, size, servicesByClass);
+    }
+
+    private static ServiceRegistrationImpl<?>[] insert(final ServiceRegistrationImpl<?>[] registrations,
+                                                       final ServiceRegistrationImpl<?> registration) {
+        if (registrations == null) {
+            return new ServiceRegistrationImpl<?>[]{registration};
+        }
+        if (indexOf(registrations, registrations.length, registration) >= 0) { // same class listed twice
+            return registrations;
+        }
+        int position = Arrays.binarySearch(registrations, registration, BEST_FIRST);
+        if (position < 0) {
+            position = -position - 1;
+        }
+        final ServiceRegistrationImpl<?>[] out = new ServiceRegistrationImpl<?>[registrations.length + 1];
+        System.arraycopy(registrations, 0, out, 0, position);
+        out[position] = registration;
+        System.arraycopy(registrations, position, out, position + 1, registrations.length - position);
+        return out;
+    }
+
+    private static ServiceRegistrationImpl<?>[] remove(final ServiceRegistrationImpl<?>[] registrations,
+                                                       final ServiceRegistrationImpl<?> registration) {
+        if (registrations == null) {
+            return null;
+        }
+        final int index = indexOf(registrations, registrations.length, registration);
+        if (index < 0) {
+            return registrations;
+        }
+        if (registrations.length == 1) {
+            return null;
+        }
+        final ServiceRegistrationImpl<?>[] out = new ServiceRegistrationImpl<?>[registrations.length - 1];
+        System.arraycopy(registrations, 0, out, 0, index);
+        System.arraycopy(registrations, index + 1, out, index, registrations.length - index - 1);
+        return out;
+    }
+
+    private static int indexOf(final ServiceRegistrationImpl<?>[] registrations, final int length,
+                               final ServiceRegistrationImpl<?> registration) {
+        for (int i = 0; i < length; i++) {
+            if (registrations[i] == registration) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import java.util.Dictionary;
+
+/**
+ * A service to register through {@link OSGiServices#registerServices(java.util.List, org.osgi.framework.Bundle)}.
+ */
+public class ServiceDefinition {
+    private final String[] classes;
+    private final Object service;
+    private final Dictionary<String, ?> properties;
+
+    public ServiceDefinition(final String[] classes, final Object service, final Dictionary<String, ?> properties) {
+        this.classes = classes;
+        this.service = service;
+        this.properties = properties;
+    }
+
+    public ServiceDefinition(final String clazz, final Object service, final Dictionary<String, ?> properties) {
+        this(new String[]{clazz}, service, properties);
+    }
+
+    public String[] getClasses() {
+        return classes;
+    }
+
+    public Object getService() {
+        return service;
+    }
+
+    public Dictionary<String, ?> getProperties() {
+        return properties;
+    }
+}
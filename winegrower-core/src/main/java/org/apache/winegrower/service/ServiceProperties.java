@@ -0,0 +1,168 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import static java.util.Collections.enumeration;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable service properties: system property overrides are resolved once (see {@link #resolve(Collection)})
+ * and reads are a lock free scan of a small array (services rarely have more than a few properties).
+ * Keys are matched exactly first then ignoring the case as required by {@link org.osgi.framework.ServiceReference}.
+ */
+public class ServiceProperties extends Dictionary<String, Object> {
+    private final String[] keys;
+    private final Object[] values;
+
+    // raw declared entries, kept to be able to resolve again the overrides against the current forced keys
+    private final String[] declaredKeys;
+    private final Object[] declaredValues;
+
+    private ServiceProperties(final String[] keys, final Object[] values,
+                              final String[] declaredKeys, final Object[] declaredValues) {
+        this.keys = keys;
+        this.values = values;
+        this.declaredKeys = declaredKeys;
+        this.declaredValues = declaredValues;
+    }
+
+    public static ServiceProperties of(final Dictionary<String, ?> properties, final Collection<String> forcedDeepPropertyRead) {
+        final Map<String, Object> declared = new LinkedHashMap<>(properties.size());
+        final Enumeration<String> names = properties.keys();
+        while (names.hasMoreElements()) {
+            final String key = names.nextElement();
+            declared.put(key, properties.get(key));
+        }
+        return of(declared, forcedDeepPropertyRead);
+    }
+
+    // declared entries updated with the given ones (configuration changes) then resolved like at registration time
+    public ServiceProperties with(final Dictionary<String, ?> updates, final Collection<String> forcedDeepPropertyRead) {
+        final Map<String, Object> declared = new LinkedHashMap<>(declaredKeys.length + updates.size());
+        for (int i = 0; i < declaredKeys.length; i++) {
+            declared.put(declaredKeys[i], declaredValues[i]);
+        }
+        final Enumeration<String> names = updates.keys();
+        while (names.hasMoreElements()) {
+            final String key = names.nextElement();
+            declared.put(key, updates.get(key));
+        }
+        return of(declared, forcedDeepPropertyRead);
+    }
+
+    private static ServiceProperties of(final Map<String, Object> declared, final Collection<String> forcedDeepPropertyRead) {
+        final String[] keys = declared.keySet().toArray(new String[0]);
+        final Object[] values = declared.values().toArray();
+        return new ServiceProperties(keys, values, keys, values).resolve(forcedDeepPropertyRead);
+    }
+
+    // system properties override the declared values except for forced keys where they are only a default,
+    // forced keys which are not declared (http.port for ex) only come from the system properties
+    public ServiceProperties resolve(final Collection<String> forcedDeepPropertyRead) {
+        final Map<String, Object> resolved = new LinkedHashMap<>(declaredKeys.length + forcedDeepPropertyRead.size());
+        for (int i = 0; i < declaredKeys.length; i++) {
+            final Object value;
+            if (declaredValues[i] != null && forcedDeepPropertyRead.contains(declaredKeys[i])) {
+                value = declaredValues[i];
+            } else {
+                final String property = System.getProperty(declaredKeys[i]);
+                value = property != null ? property : declaredValues[i];
+            }
+            if (value != null) {
+                resolved.put(declaredKeys[i], value);
+            }
+        }
+        for (final String key : forcedDeepPropertyRead) {
+            if (!resolved.containsKey(key)) {
+                final String property = System.getProperty(key);
+                if (property != null) {
+                    resolved.put(key, property);
+                }
+            }
+        }
+        return new ServiceProperties(resolved.keySet().toArray(new String[0]), resolved.values().toArray(),
+                declaredKeys, declaredValues);
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    @Override
+    public Enumeration<String> keys() {
+        return enumeration(Arrays.asList(keys));
+    }
+
+    @Override
+    public Enumeration<Object> elements() {
+        return enumeration(Arrays.asList(values));
+    }
+
+    public String[] getKeys() {
+        return keys.clone();
+    }
+
+    @Override
+    public Object get(final Object key) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(key)) {
+                return values[i];
+            }
+        }
+        if (String.class.isInstance(key)) {
+            final String name = String.class.cast(key);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].equalsIgnoreCase(name)) {
+                    return values[i];
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Object put(final String key, final Object value) {
+        throw new UnsupportedOperationException("Service properties are immutable, use ServiceRegistration#setProperties");
+    }
+
+    @Override
+    public Object remove(final Object key) {
+        throw new UnsupportedOperationException("Service properties are immutable, use ServiceRegistration#setProperties");
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(keys[i]).append('=').append(values[i] instanceof Object[] ?
+                    Arrays.toString((Object[]) values[i]) : values[i]);
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -18,11 +18,14 @@ import static java.util.Collections.list;
 import java.util.Dictionary;
 
 import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceReference;
 
 public class ServiceReferenceImpl<T> implements ServiceReference<T> {
-    private final Dictionary<String, Object> properties;
+    private volatile Dictionary<String, Object> properties;
+    private volatile int ranking;
+    private volatile long serviceId;
     private final Bundle bundle;
     private final Bundle[] usingBundles = new Bundle[0];
     private final Object reference;
@@ -30,8 +33,8 @@ public class ServiceReferenceImpl<T> implements ServiceReference<T> {
     private ServiceRegistrationImpl registration;
 
     ServiceReferenceImpl(final Dictionary<String, Object> properties, final Bundle bundle, final Object reference) {
-        this.properties = properties;
         this.bundle = bundle;
+        setProperties(properties);
         this.usesFactory = ServiceFactory.class.isInstance(reference);
         this.reference = reference;
     }
@@ -48,6 +51,15 @@ public class ServiceReferenceImpl<T> implements ServiceReference<T> {
         this.registration = registration;
     }
 
+    void setProperties(final Dictionary<String, Object> properties) {
+        this.properties = properties;
+
+        final Object ranking = properties.get(Constants.SERVICE_RANKING);
+        this.ranking = Integer.class.isInstance(ranking) ? Integer.class.cast(ranking) : 0;
+        final Object id = properties.get(Constants.SERVICE_ID);
+        this.serviceId = Long.class.isInstance(id) ? Long.class.cast(id) : 0L;
+    }
+
     public Object getReference() {
         if (usesFactory) {
             return ServiceFactory.class.cast(reference).getService(bundle, registration);
@@ -62,6 +74,10 @@ public class ServiceReferenceImpl<T> implements ServiceReference<T> {
 
     @Override
     public String[] getPropertyKeys() {
+        final Dictionary<String, Object> properties = this.properties;
+        if (ServiceProperties.class.isInstance(properties)) {
+            return ServiceProperties.class.cast(properties).getKeys();
+        }
         return list(properties.keys()).toArray(new String[0]);
     }
 
@@ -80,12 +96,22 @@ public class ServiceReferenceImpl<T> implements ServiceReference<T> {
         return true;
     }
 
-    @Override
+    public int getRanking() {
+        return ranking;
+    }
+
+    public long getServiceId() {
+        return serviceId;
+    }
+
+    @Override // higher ranking is greater, then lower id is greater
     public int compareTo(final Object reference) {
-        if (this.reference.equals(reference)) {
-            return 0;
+        final ServiceReferenceImpl<?> other = ServiceReferenceImpl.class.cast(reference);
+        final int ranking = Integer.compare(getRanking(), other.getRanking());
+        if (ranking != 0) {
+            return ranking;
         }
-        return System.identityHashCode(this.reference) - System.identityHashCode(reference);
+        return Long.compare(other.getServiceId(), getServiceId());
     }
 
     @Override
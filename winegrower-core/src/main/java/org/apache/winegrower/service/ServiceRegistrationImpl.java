@@ -22,13 +22,16 @@ import org.osgi.framework.ServiceRegistration;
 
 public class ServiceRegistrationImpl<T> implements ServiceRegistration<T> {
     private final String[] classes;
+    private final String[] assignableTypes; // classes and their supertypes, indexed by RegistrySnapshot
     private final Consumer<ServiceRegistration<?>> onUnregister;
     private final ServiceReference<T> reference;
     private volatile Dictionary<String, ?> properties;
 
-    ServiceRegistrationImpl(final String[] classes, final Dictionary<String, ?> properties, final ServiceReferenceImpl<T> reference,
+    ServiceRegistrationImpl(final String[] classes, final String[] assignableTypes,
+                            final Dictionary<String, ?> properties, final ServiceReferenceImpl<T> reference,
                             final Consumer<ServiceRegistration<?>> onUnregister) {
         this.classes = classes;
+        this.assignableTypes = assignableTypes;
         this.properties = properties;
         this.reference = reference;
         this.onUnregister = onUnregister;
@@ -40,6 +43,10 @@ public class ServiceRegistrationImpl<T> implements ServiceRegistration<T> {
         return classes;
     }
 
+    String[] getAssignableTypes() {
+        return assignableTypes;
+    }
+
     @Override
     public ServiceReference<T> getReference() {
         return reference;
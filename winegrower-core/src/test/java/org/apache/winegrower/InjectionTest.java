@@ -15,17 +15,25 @@ package org.apache.winegrower;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
+import java.util.Hashtable;
 import java.util.stream.Stream;
 
 import org.apache.winegrower.api.InjectedService;
+import org.apache.winegrower.service.OSGiServices;
 import org.apache.winegrower.service.ServiceReferenceImpl;
 import org.apache.winegrower.service.ServiceRegistrationImpl;
 import org.apache.winegrower.test.WithRipener;
 import org.apache.winegrower.test.WithRipener.Entry;
 import org.apache.winegrower.test.WithRipener.Service;
 import org.apache.winegrower.test.simpleservice.MyService;
+import org.apache.winegrower.test.simpleservice.MyServiceImpl;
 import org.junit.jupiter.api.Test;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
 
 class InjectionTest {
 
@@ -40,10 +48,68 @@ class InjectionTest {
                 .findFirst().orElseThrow(IllegalArgumentException::new).getReference()).getReference(), injected.service);
     }
 
+    @Test
+    @WithRipener(includeResources = @Entry(path = "org.apache.winegrower.test.simpleservice"))
+    void findService(@Service final Ripener ripener) {
+        final OSGiServices services = ripener.getServices();
+        final MyService service = services.findService(MyService.class).orElseThrow(IllegalStateException::new);
+        assertSame(service, services.findService(MyService.class).orElse(null));
+
+        final ServiceRegistration<MyService> ranked = ripener.getRegistry().getBundles().get(0L).getBundle()
+                .getBundleContext().registerService(MyService.class, new MyServiceImpl(), new Hashtable<String, Object>() {{
+                    put(Constants.SERVICE_RANKING, 10);
+                }});
+        final MyService rankedService = services.findService(MyService.class).orElseThrow(IllegalStateException::new);
+        assertNotSame(service, rankedService);
+
+        ranked.unregister();
+        assertSame(service, services.findService(MyService.class).orElse(null));
+    }
+
+    @Test
+    @WithRipener(includeResources = @Entry(path = "org.apache.winegrower.test.simpleservice"))
+    void injectInheritedFields(@Service final Ripener ripener) {
+        final InjectedChild injected = ripener.getServices().inject(new InjectedChild());
+        final MyService inherited = Injected.class.cast(injected).service; // field of the parent class
+        assertNotNull(inherited);
+        assertSame(inherited, injected.childService);
+    }
+
+    @Test
+    @WithRipener(includeResources = @Entry(path = "org.apache.winegrower.test.simpleservice"))
+    void injectStaticAndSkipFinalFields(@Service final Ripener ripener) {
+        try {
+            final Unsupported injected = ripener.getServices().inject(new Unsupported());
+            assertNotNull(Unsupported.staticService);
+            assertNull(injected.finalService);
+            assertNotNull(injected.service);
+        } finally {
+            Unsupported.staticService = null;
+        }
+    }
+
     public static class Injected {
 
         @InjectedService
         private MyService service;
     }
 
+    public static class InjectedChild extends Injected {
+
+        @InjectedService
+        private MyService childService;
+    }
+
+    public static class Unsupported {
+
+        @InjectedService
+        private static MyService staticService;
+
+        @InjectedService
+        private final MyService finalService = null;
+
+        @InjectedService
+        private MyService service;
+    }
+
 }
@@ -24,11 +24,18 @@ import org.apache.winegrower.test.simpleactivator.MyActivator;
 import org.junit.jupiter.api.Test;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.cm.ManagedService;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
@@ -152,6 +159,32 @@ class RipenerTest {
         validateTracker(ripener);
     }
 
+    @Test
+    @WithRipener
+    void configurationUpdate(@Service final Ripener ripener) {
+        final List<Dictionary<String, ?>> updates = new ArrayList<>();
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(Constants.SERVICE_PID, "ripener.update");
+        properties.put("declared", "true");
+        final ServiceRegistration<ManagedService> registration = ripener.getRegistry().getBundles().get(0L).getBundle()
+                .getBundleContext().registerService(ManagedService.class, updates::add, properties);
+        try {
+            final Hashtable<String, Object> configuration = new Hashtable<>();
+            configuration.put("foo", "updated");
+            configuration.put(Constants.SERVICE_RANKING, 5);
+            ripener.getServices().updateManagedServices("ripener.update", configuration);
+
+            // same merged properties than the registration ones
+            final Dictionary<String, ?> updated = updates.get(updates.size() - 1);
+            assertEquals("updated", updated.get("foo"));
+            assertEquals("true", updated.get("declared"));
+            assertEquals("updated", registration.getReference().getProperty("foo"));
+            assertEquals(5, registration.getReference().getProperty(Constants.SERVICE_RANKING));
+        } finally {
+            registration.unregister();
+        }
+    }
+
     private void validateTracker(final Ripener ripener) {
         assertEquals(4, ripener.getServices().getServices().size());
 
@@ -0,0 +1,71 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.lang;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class SubstitutorTest {
+    private final Substitutor substitutor = new Substitutor(values());
+
+    @Test
+    void replace() {
+        assertEquals("no placeholder", substitutor.replace("no placeholder"));
+        assertEquals(">A<", substitutor.replace(">${a}<"));
+        assertEquals("A-B-A", substitutor.replace("${a}-${b}"));
+        assertEquals("${missing}", substitutor.replace("${missing}"));
+        assertEquals("${unclosed", substitutor.replace("${unclosed"));
+    }
+
+    @Test
+    void defaults() {
+        assertEquals("fallback", substitutor.replace("${missing:-fallback}"));
+        assertEquals("A", substitutor.replace("${a:-fallback}"));
+        assertEquals("A", substitutor.replace("${missing:-${a}}"));
+        assertEquals("", substitutor.replace("${missing:-}"));
+    }
+
+    @Test
+    void nesting() {
+        assertEquals("selected", substitutor.replace("${key.${suffix}}"));
+    }
+
+    @Test
+    void escape() {
+        assertEquals("${a}", substitutor.replace("$${a}"));
+        assertEquals("cost: $5 and A, ${a}", substitutor.replace("cost: $5 and ${a}, $${a}"));
+    }
+
+    @Test
+    void cycle() {
+        final IllegalStateException error = assertThrows(IllegalStateException.class, () -> substitutor.replace("${cycle1}"));
+        assertEquals("Infinite loop in property interpolation of ${cycle1}: cycle1->cycle2->cycle1", error.getMessage());
+    }
+
+    private static Map<String, String> values() {
+        final Map<String, String> values = new HashMap<>();
+        values.put("a", "A");
+        values.put("b", "B-${a}");
+        values.put("suffix", "one");
+        values.put("key.one", "selected");
+        values.put("cycle1", "${cycle2}");
+        values.put("cycle2", "${cycle1}");
+        return values;
+    }
+}
@@ -24,15 +24,32 @@ import org.osgi.service.cm.ConfigurationEvent;
 import org.osgi.service.cm.ConfigurationListener;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.emptyMap;
 import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class DefaultConfigurationAdminTest {
@@ -116,4 +133,136 @@ class DefaultConfigurationAdminTest {
         Assertions.assertEquals("bar", configuration.getProperties().get("foo"));
     }
 
+    @Test
+    void concurrentCreation() throws Exception {
+        final ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Configuration>> configurations = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                configurations.add(pool.submit(() -> configurationAdmin.getConfiguration("concurrent")));
+            }
+            final Configuration first = configurations.get(0).get();
+            for (final Future<Configuration> configuration : configurations) {
+                assertSame(first, configuration.get());
+            }
+            assertEquals(1, configurationAdmin.listConfigurations("(service.pid=concurrent)").length);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void watchExternalFiles() throws Exception {
+        final Path directory = Files.createTempDirectory("winegrower-watch");
+        final Path file = directory.resolve("watched.cfg");
+        Files.write(file, singletonList("foo=bar"), StandardCharsets.UTF_8);
+
+        final String previousPath = System.getProperty("winegrower.config.path");
+        System.setProperty("winegrower.config.path", directory.toString());
+        final BlockingQueue<ConfigurationEvent> events = new LinkedBlockingQueue<>();
+        final DefaultConfigurationAdmin configurationAdmin = new DefaultConfigurationAdmin(
+                emptyMap(), singletonList(events::add)) {
+            @Override
+            protected ServiceReference<ConfigurationAdmin> getSelfReference() {
+                return new ServiceReferenceImpl<>(new Hashtable<>(), null, null);
+            }
+        };
+        try {
+            final Configuration configuration = configurationAdmin.getConfiguration("watched");
+            final Configuration other = configurationAdmin.getConfiguration("watched.other");
+            assertEquals("bar", configuration.getProperties().get("foo"));
+            configurationAdmin.startWatching(50);
+
+            Files.write(file, singletonList("foo=updated"), StandardCharsets.UTF_8);
+            final ConfigurationEvent event = events.poll(1, MINUTES);
+            assertNotNull(event);
+            assertEquals(ConfigurationEvent.CM_UPDATED, event.getType());
+            assertEquals("watched", event.getPid());
+            assertEquals("updated", configuration.getProperties().get("foo"));
+            assertEquals(1, configuration.getChangeCount());
+            assertEquals(0, other.getChangeCount());
+
+            // same effective properties, no event
+            Files.write(file, asList("# comment", "foo=updated"), StandardCharsets.UTF_8);
+            assertNull(events.poll(1, SECONDS));
+            assertEquals(1, configuration.getChangeCount());
+        } finally {
+            configurationAdmin.stopWatching();
+            if (previousPath == null) {
+                System.clearProperty("winegrower.config.path");
+            } else {
+                System.setProperty("winegrower.config.path", previousPath);
+            }
+            Files.delete(file);
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    void asyncDispatch() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> events = new CopyOnWriteArrayList<>();
+        final List<ConfigurationListener> listeners = singletonList(event -> {
+            started.countDown();
+            try {
+                release.await(1, MINUTES);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            events.add(event.getType());
+        });
+        final DefaultConfigurationAdmin configurationAdmin = new DefaultConfigurationAdmin(emptyMap(), listeners) {
+            @Override
+            protected ServiceReference<ConfigurationAdmin> getSelfReference() {
+                return new ServiceReferenceImpl<>(new Hashtable<>(), null, null);
+            }
+        };
+        final ConfigurationDispatcher dispatcher = new ConfigurationDispatcher(2, 60000);
+        configurationAdmin.setDispatcher(dispatcher);
+        try {
+            final Configuration configuration = configurationAdmin.getConfiguration("async");
+            configuration.update(new Hashtable<>());
+            assertTrue(started.await(1, MINUTES));
+
+            // the listener is blocked, these calls must not wait and the updates are coalesced
+            for (int i = 0; i < 5; i++) {
+                configuration.update(new Hashtable<>());
+            }
+            configuration.delete();
+            configuration.update(new Hashtable<>());
+            assertTrue(events.isEmpty());
+        } finally {
+            release.countDown();
+            dispatcher.close();
+        }
+        assertEquals(asList(ConfigurationEvent.CM_UPDATED, ConfigurationEvent.CM_UPDATED,
+                ConfigurationEvent.CM_DELETED, ConfigurationEvent.CM_UPDATED), events);
+    }
+
+    @Test
+    void systemPropertiesIndex() throws IOException {
+        try {
+            System.setProperty("winegrower.service.indexed.first", "1");
+            assertEquals("1", configurationAdmin.getConfiguration("indexed").getProperties().get("first"));
+
+            // the index is only rebuilt on an explicit refresh
+            System.setProperty("winegrower.service.indexed2.second", "${winegrower.service.indexed.first}-2");
+            final Configuration indexed2 = configurationAdmin.getConfiguration("indexed2");
+            assertNull(indexed2.getProperties().get("second"));
+            indexed2.update();
+            assertEquals("1-2", indexed2.getProperties().get("second"));
+
+            // same number of properties but a different one
+            System.clearProperty("winegrower.service.indexed2.second");
+            System.setProperty("winegrower.service.indexed3.third", "3");
+            final Configuration indexed3 = configurationAdmin.getConfiguration("indexed3");
+            indexed3.update();
+            assertEquals("3", indexed3.getProperties().get("third"));
+        } finally {
+            System.clearProperty("winegrower.service.indexed.first");
+            System.clearProperty("winegrower.service.indexed2.second");
+            System.clearProperty("winegrower.service.indexed3.third");
+        }
+    }
 }
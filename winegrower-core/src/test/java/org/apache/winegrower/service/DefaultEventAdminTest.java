@@ -13,23 +13,52 @@
  */
 package org.apache.winegrower.service;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
 import static java.util.Collections.singletonList;
 import static java.util.Collections.singletonMap;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+import javax.management.ObjectName;
+
 import org.apache.winegrower.Ripener;
+import org.apache.winegrower.api.BatchEventHandler;
+import org.apache.winegrower.api.LatencyStatistics;
 import org.apache.winegrower.deployer.BundleImpl;
 import org.junit.jupiter.api.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
 
 class DefaultEventAdminTest {
+    // handlers registered as services land in listeners like with the Ripener
+    private final EventHandlerRegistry listeners = new EventHandlerRegistry();
+    private final BundleImpl bundle = new BundleRegistry(new OSGiServices(null, emptyList(), listeners),
+            new Ripener.Configuration()).getBundles().get(0L).getBundle();
 
     @Test
     void publish() {
@@ -44,19 +73,434 @@ class DefaultEventAdminTest {
             admin.sendEvent(new Event("test", singletonMap("winegrower", "1")));
             assertEquals(singletonList("@test: event.topics=test, winegrower=1"), events);
             admin.sendEvent(new Event("test/another", singletonMap("weingrower", "2")));
-            assertEquals(2, events.size());
+            assertEquals(1, events.size()); // topic does not match
 
             listeners.add(new DefaultEventAdmin.EventHandlerInstance(bundle, event -> events.add(asString(event)),
-                    new String[] { "test" }, "(&(winegrower=4)(event.topics=test))"));
-            admin.sendEvent(new Event("test/no", singletonMap("weingrower", "3")));
+                    new String[] { "test/*" }, "(&(winegrower=4)(event.topics=test/single))"));
+            admin.sendEvent(new Event("test/no", singletonMap("winegrower", "3")));
+            assertEquals(1, events.size());
+            admin.sendEvent(new Event("test", singletonMap("winegrower", "4")));
+            assertEquals(2, events.size());
+            admin.sendEvent(new Event("test/single", singletonMap("winegrower", "4")));
             assertEquals(3, events.size());
-            admin.sendEvent(new Event("test", singletonMap("weingrower", "4")));
-            assertEquals(4, events.size());
-            admin.sendEvent(new Event("test/single", singletonMap("weingrower", "4")));
-            assertEquals(5, events.size());
         }
     }
 
+    @Test
+    void topicIndex() {
+        final List<String> events = new ArrayList<>();
+        try (final DefaultEventAdmin admin = new DefaultEventAdmin(listeners, 1)) {
+            listeners.add(new DefaultEventAdmin.EventHandlerInstance(bundle, event -> events.add("exact:" + event.getTopic()),
+                    new String[] { "a/b" }, null));
+            listeners.add(new DefaultEventAdmin.EventHandlerInstance(bundle, event -> events.add("prefix:" + event.getTopic()),
+                    new String[] { "a/*", "a/b" }, null));
+            final DefaultEventAdmin.EventHandlerInstance all = new DefaultEventAdmin.EventHandlerInstance(
+                    bundle, event -> events.add("all:" + event.getTopic()), null, null);
+            listeners.add(all);
+
+            Stream.of("a", "a/b", "a/b/c", "b").forEach(topic -> admin.sendEvent(new Event(topic, emptyMap())));
+            assertEquals(asList(
+                    "all:a",
+                    "exact:a/b", "prefix:a/b", "all:a/b",
+                    "prefix:a/b/c", "all:a/b/c",
+                    "all:b"), events);
+
+            events.clear();
+            listeners.remove(all);
+            admin.sendEvent(new Event("b", emptyMap()));
+            assertEquals(emptyList(), events);
+        }
+    }
+
+    @Test
+    void orderedPost() throws InterruptedException {
+        final List<Integer> first = new CopyOnWriteArrayList<>();
+        final List<Integer> second = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(2000);
+        try (final DefaultEventAdmin admin = new DefaultEventAdmin(listeners, 4)) {
+            listeners.add(new DefaultEventAdmin.EventHandlerInstance(bundle, event -> {
+                first.add(Integer.class.cast(event.getProperty("index")));
+                latch.countDown();
+            }, new String[] { "test" }, null));
+            listeners.add(new DefaultEventAdmin.EventHandlerInstance(bundle, event -> {
+                second.add(Integer.class.cast(event.getProperty("index")));
+                latch.countDown();
+            }, new String[] { "test" }, null));
+            IntStream.range(0, 1000).forEach(i -> admin.postEvent(new Event("test", singletonMap("index", i))));
+            assertTrue(latch.await(1, MINUTES));
+        }
+        final List<Integer> expected = IntStream.range(0, 1000).boxed().collect(toList());
+        assertEquals(expected, first);
+        assertEquals(expected, second);
+    }
+
+    @Test
+    void dropNewest() throws InterruptedException {
+        assertEquals(asList(0, 1, 2), boundedQueue(DefaultEventAdmin.RejectionPolicy.DROP_NEWEST));
+    }
+
+    @Test
+    void dropOldest() throws InterruptedException {
+        assertEquals(asList(0, 3, 4), boundedQueue(DefaultEventAdmin.RejectionPolicy.DROP_OLDEST));
+    }
+
+    private List<Integer> boundedQueue(final DefaultEventAdmin.RejectionPolicy policy) throws InterruptedException {
+        final List<Integer> received = new CopyOnWriteArrayList<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+        try (final DefaultEventAdmin admin = new DefaultEventAdmin(listeners, new DefaultEventAdmin.Configuration()
+                .setPoolSize(1).setQueueSize(2).setRejectionPolicy(policy))) {
+            listeners.add(new DefaultEventAdmin.EventHandlerInstance(bundle, event -> {
+                started.countDown();
+                try {
+                    release.await(1, MINUTES);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                received.add(Integer.class.cast(event.getProperty("index")));
+                done.countDown();
+            }, new String[] { "test" }, null));
+
+            admin.postEvent(new Event("test", singletonMap("index", 0)));
+            assertTrue(started.await(1, MINUTES));
+            IntStream.range(1, 5).forEach(i -> admin.postEvent(new Event("test", singletonMap("index", i))));
+            assertEquals(2, admin.getQueuedEvents());
+            assertEquals(2, admin.getDroppedEvents());
+            assertEquals(2, admin.getRejectedEvents());
+
+            release.countDown();
+            assertTrue(done.await(1, MINUTES));
+        }
+        return received;
+    }
+
+    @Test
+    void callerRunsKeepsOrdering() throws InterruptedException {
+        final List<Integer> received = new CopyOnWriteArrayList<>();
+        final AtomicInteger concurrency = new AtomicInteger();
+        final AtomicInteger maxConcurrency = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try (final DefaultEventAdmin admin = new DefaultEventAdmin(listeners, new DefaultEventAdmin.Configuration()
+                .setPoolSize(2).setQueueSize(1).setRejectionPolicy(DefaultEventAdmin.RejectionPolicy.CALLER_RUNS))) {
+            listeners.add(new DefaultEventAdmin.EventHandlerInstance(bundle, event -> {
+                maxConcurrency.accumulateAndGet(concurrency.incrementAndGet(), Math::max);
+                started.countDown();
+                try {
+                    release.await(1, MINUTES);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                received.add(Integer.class.cast(event.getProperty("index")));
+                concurrency.decrementAndGet();
+            }, new String[] { "test" }, null));
+
+            admin.postEvent(new Event("test", singletonMap("index", 0)));
+            assertTrue(started.await(1, MINUTES));
+            admin.postEvent(new Event("test", singletonMap("index", 1))); // queued
+            final Thread caller = new Thread(() -> IntStream.range(2, 4)
+                    .forEach(i -> admin.postEvent(new Event("test", singletonMap("index", i)))));
+            caller.start();
+            Thread.sleep(200); // caller waits for the handler serial slot
+            assertTrue(received.isEmpty()); // nothing overtook the running delivery
+            assertEquals(1, admin.getQueuedEvents());
+            release.countDown();
+            caller.join(MINUTES.toMillis(1));
+        }
+        assertEquals(asList(0, 1, 2, 3), received);
+        assertEquals(1, maxConcurrency.get());
+    }
+
+    @Test
+    void blockingReentrantPost() throws InterruptedException {
+        final List<Integer> received = new CopyOnWriteArrayList<>();
+        final CountDownLatch done = new CountDownLatch(3);
+        try (final DefaultEventAdmin admin = new DefaultEventAdmin(listeners, new DefaultEventAdmin.Configuration()
+                .setPoolSize(1).setQueueSize(1).setRejectionPolicy(DefaultEventAdmin.RejectionPolicy.BLOCK))) {
+            listeners.add(new DefaultEventAdmin.EventHandlerInstance(bundle, event -> {
+                final int index = Integer.class.cast(event.getProperty("index"));
+                received.add(index);
+                if (index == 0) { // the second post hits the full queue of the handler draining it
+                    admin.postEvent(new Event("test", singletonMap("index", 1)));
+                    admin.postEvent(new Event("test", singletonMap("index", 2)));
+                }
+                done.countDown();
+            }, new String[] { "test" }, null));
+            admin.postEvent(new Event("test", singletonMap("index", 0)));
+            assertTrue(done.await(1, MINUTES));
+        }
+        assertEquals(asList(0, 1, 2), received);
+    }
+
+    @Test
+    void blockingCrossHandlerPost() throws InterruptedException {
+        final List<Integer> received = new CopyOnWriteArrayList<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+        try (final DefaultEventAdmin admin = new DefaultEventAdmin(listeners, new DefaultEventAdmin.Configuration()
+                .setPoolSize(1).setQueueSize(1).setRejectionPolicy(DefaultEventAdmin.RejectionPolicy.BLOCK))) {
+            listeners.add(new DefaultEventAdmin.EventHandlerInstance(bundle, event -> {
+                started.countDown();
+                try {
+                    release.await(1, MINUTES);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                // the queue of the other handler is full and the only worker is this one
+                admin.postEvent(new Event("target", singletonMap("index", 1)));
+                admin.postEvent(new Event("target", singletonMap("index", 2)));
+            }, new String[] { "source" }, null));
+            listeners.add(new DefaultEventAdmin.EventHandlerInstance(bundle, event -> {
+                received.add(Integer.class.cast(event.getProperty("index")));
+                done.countDown();
+            }, new String[] { "target" }, null));
+
+            admin.postEvent(new Event("source", emptyMap()));
+            assertTrue(started.await(1, MINUTES));
+            admin.postEvent(new Event("target", singletonMap("index", 0))); // fills the target queue
+            release.countDown();
+            assertTrue(done.await(1, MINUTES));
+        }
+        assertEquals(asList(0, 1, 2), received);
+    }
+
+    @Test
+    void timeoutBlacklisting() {
+        final List<String> events = new ArrayList<>();
+        try (final DefaultEventAdmin admin = new DefaultEventAdmin(listeners, new DefaultEventAdmin.Configuration()
+                .setPoolSize(1).setBlacklistThreshold(2).setWatchdogPeriod(10))) {
+            final DefaultEventAdmin.EventHandlerInstance slow = new DefaultEventAdmin.EventHandlerInstance(bundle, event -> {
+                events.add("slow");
+                try {
+                    Thread.sleep(100);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, new String[] { "test" }, null, 20);
+            listeners.add(slow);
+            listeners.add(new DefaultEventAdmin.EventHandlerInstance(bundle, event -> events.add("fast"),
+                    new String[] { "test" }, null));
+
+            admin.sendEvent(new Event("test", emptyMap()));
+            assertFalse(slow.isBlacklisted());
+            admin.sendEvent(new Event("test", emptyMap()));
+            assertTrue(slow.isBlacklisted());
+            admin.sendEvent(new Event("test", emptyMap()));
+            assertEquals(asList("slow", "fast", "slow", "fast", "fast"), events);
+        }
+    }
+
+    @Test
+    void blacklistingDropsQueuedEvents() {
+        final List<String> events = new CopyOnWriteArrayList<>();
+        final DefaultEventAdmin.EventHandlerInstance slow = new DefaultEventAdmin.EventHandlerInstance(bundle, event -> {
+            events.add("slow");
+            try {
+                Thread.sleep(100);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, new String[] { "test" }, null, 20);
+        final DefaultEventAdmin admin = new DefaultEventAdmin(listeners, new DefaultEventAdmin.Configuration()
+                .setPoolSize(1).setBlacklistThreshold(1).setWatchdogPeriod(10));
+        try {
+            listeners.add(slow);
+            IntStream.range(0, 3).forEach(i -> admin.postEvent(new Event("test", emptyMap())));
+        } finally {
+            admin.close();
+        }
+        assertEquals(singletonList("slow"), events);
+        assertEquals(2, admin.getDroppedEvents());
+        assertTrue(slow.isBlacklisted());
+
+        // re-registered handlers get events again
+        listeners.remove(slow);
+        listeners.add(slow);
+        assertFalse(slow.isBlacklisted());
+    }
+
+    @Test
+    void virtualThreads() throws InterruptedException { // falls back on a platform pool before Java 21
+        final List<Integer> received = new CopyOnWriteArrayList<>();
+        final List<Boolean> virtual = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(100);
+        try (final DefaultEventAdmin admin = new DefaultEventAdmin(listeners, new DefaultEventAdmin.Configuration()
+                .setVirtualThreads(true))) {
+            listeners.add(new DefaultEventAdmin.EventHandlerInstance(bundle, event -> {
+                received.add(Integer.class.cast(event.getProperty("index")));
+                virtual.add(isVirtual(Thread.currentThread()));
+                latch.countDown();
+            }, new String[] { "test" }, null));
+            IntStream.range(0, 100).forEach(i -> admin.postEvent(new Event("test", singletonMap("index", i))));
+            assertTrue(latch.await(1, MINUTES));
+        }
+        assertEquals(IntStream.range(0, 100).boxed().collect(toList()), received);
+        final boolean supportsVirtualThreads = Stream.of(Thread.class.getMethods()).anyMatch(m -> m.getName().equals("isVirtual"));
+        assertTrue(virtual.stream().allMatch(it -> it == supportsVirtualThreads), () -> virtual.toString());
+    }
+
+    private static boolean isVirtual(final Thread thread) {
+        try {
+            return Boolean.class.cast(Thread.class.getMethod("isVirtual").invoke(thread));
+        } catch (final NoSuchMethodException e) { // before Java 21
+            return false;
+        } catch (final ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    void permissionChecker() {
+        final List<String> events = new ArrayList<>();
+        try (final DefaultEventAdmin admin = new DefaultEventAdmin(listeners, new DefaultEventAdmin.Configuration()
+                .setPermissionChecker(topic -> topic.startsWith("secured/") ? b -> false : null))) {
+            listeners.add(new DefaultEventAdmin.EventHandlerInstance(bundle, event -> events.add(event.getTopic()),
+                    new String[] { "*" }, null));
+            admin.sendEvent(new Event("secured/test", emptyMap()));
+            admin.sendEvent(new Event("public/test", emptyMap()));
+            assertEquals(singletonList("public/test"), events);
+        }
+    }
+
+    @Test
+    void serviceFactoryHandler() {
+        final BundleContext context = bundle.getBundleContext();
+        final List<String> calls = new ArrayList<>();
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(EventConstants.EVENT_TOPIC, "test");
+        try (final DefaultEventAdmin admin = new DefaultEventAdmin(listeners, 1)) {
+            final ServiceRegistration<EventHandler> registration = context.registerService(
+                    EventHandler.class, new ServiceFactory<EventHandler>() {
+                        @Override
+                        public EventHandler getService(final Bundle bundle, final ServiceRegistration<EventHandler> registration) {
+                            calls.add("get");
+                            return event -> calls.add("event");
+                        }
+
+                        @Override
+                        public void ungetService(final Bundle bundle, final ServiceRegistration<EventHandler> registration,
+                                                 final EventHandler service) {
+                            calls.add("unget");
+                        }
+                    }, properties);
+            admin.sendEvent(new Event("test", emptyMap()));
+            admin.sendEvent(new Event("test", emptyMap()));
+            assertEquals(asList("get", "event", "event"), calls);
+
+            registration.unregister();
+            assertEquals(0, listeners.size());
+            admin.sendEvent(new Event("test", emptyMap()));
+            assertEquals(asList("get", "event", "event", "unget"), calls);
+        }
+    }
+
+    @Test
+    void serviceFactoryHandlerIsNotBatched() throws InterruptedException {
+        final BundleContext context = bundle.getBundleContext();
+        final List<Integer> received = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(EventConstants.EVENT_TOPIC, "test");
+        try (final DefaultEventAdmin admin = new DefaultEventAdmin(listeners, 1)) {
+            context.registerService(EventHandler.class, new ServiceFactory<EventHandler>() {
+                @Override
+                public EventHandler getService(final Bundle bundle, final ServiceRegistration<EventHandler> registration) {
+                    return event -> {
+                        final int index = Integer.class.cast(event.getProperty("index"));
+                        if (index == 1) {
+                            throw new IllegalStateException("expected");
+                        }
+                        received.add(index);
+                        if (index == 2) {
+                            latch.countDown();
+                        }
+                    };
+                }
+
+                @Override
+                public void ungetService(final Bundle bundle, final ServiceRegistration<EventHandler> registration,
+                                         final EventHandler service) {
+                    // no-op
+                }
+            }, properties);
+            admin.postEvents(IntStream.range(0, 3)
+                    .mapToObj(i -> new Event("test", singletonMap("index", i)))
+                    .collect(toList()));
+            assertTrue(latch.await(1, MINUTES));
+        }
+        assertEquals(asList(0, 2), received); // the failure didn't lose the next event
+    }
+
+    @Test
+    void batchAndCoalescing() throws InterruptedException {
+        final List<List<String>> batches = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(2);
+        try (final DefaultEventAdmin admin = new DefaultEventAdmin(listeners, 1)) {
+            listeners.add(new DefaultEventAdmin.EventHandlerInstance(bundle, (BatchEventHandler) events -> {
+                batches.add(events.stream().map(it -> it.getTopic() + ":" + it.getProperty("value")).collect(toList()));
+                latch.countDown();
+            }, new String[] { "*" }, null));
+
+            admin.postEvents(asList(
+                    new Event("a", singletonMap("value", 1)), new Event("b", singletonMap("value", 2))));
+
+            admin.registerCoalescing("state", "key", 100);
+            IntStream.range(0, 10).forEach(i -> {
+                final Map<String, Object> properties = new HashMap<>();
+                properties.put("key", i % 2);
+                properties.put("value", i);
+                admin.postEvent(new Event("state", properties));
+            });
+            assertTrue(latch.await(1, MINUTES));
+        }
+        assertEquals(asList(asList("a:1", "b:2"), asList("state:8", "state:9")), batches);
+    }
+
+    @Test
+    void metricsPrecision() {
+        final EventAdminMetrics metrics = new EventAdminMetrics();
+        IntStream.rangeClosed(1, 100).forEach(i -> metrics.onDelivery("test", "handler", MILLISECONDS.toNanos(i)));
+        final LatencyStatistics statistics = metrics.getExecution();
+        assertEquals(100, statistics.getCount());
+        assertEquals(100_000, statistics.getMax());
+        assertPercentile(50_000, statistics.getP50());
+        assertPercentile(90_000, statistics.getP90());
+        assertPercentile(99_000, statistics.getP99());
+    }
+
+    private static void assertPercentile(final long expected, final long actual) {
+        assertTrue(actual >= expected && actual <= expected * 1.125, () -> expected + " != " + actual);
+    }
+
+    @Test
+    void metrics() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        final EventAdminMetrics metrics;
+        final ObjectName query = new ObjectName("org.apache.winegrower:type=EventAdmin,name=metrics,*");
+        try (final DefaultEventAdmin admin = new DefaultEventAdmin(listeners, new DefaultEventAdmin.Configuration()
+                .setMetrics(true))) {
+            listeners.add(new DefaultEventAdmin.EventHandlerInstance(bundle, event -> latch.countDown(),
+                    new String[] { "test/*" }, null));
+            admin.sendEvent(new Event("test/sync", emptyMap()));
+            admin.postEvent(new Event("test/async", emptyMap()));
+            admin.postEvent(new Event("other", emptyMap()));
+            assertTrue(latch.await(1, MINUTES));
+
+            metrics = admin.getMetrics();
+            assertEquals(1, ManagementFactory.getPlatformMBeanServer().queryNames(query, null).size());
+            assertEquals(3, metrics.getPublishedEvents());
+            assertEquals(1, metrics.getPublishedEventsByTopic().get("other").longValue());
+        }
+        assertEquals(asList("test/async", "test/sync"), new ArrayList<>(metrics.getTopicLatencies().keySet()));
+        assertEquals(1, metrics.getHandlerLatencies().size());
+        assertEquals(2, metrics.getDeliveredEvents());
+        assertEquals(2, metrics.getExecution().getCount());
+        assertEquals(1, metrics.getQueueWait().getCount());
+        assertEquals(0, ManagementFactory.getPlatformMBeanServer().queryNames(query, null).size());
+    }
+
     private String asString(final Event event) {
         return "@" + event.getTopic() + ": "
                 + Stream.of(event.getPropertyNames()).sorted().map(it -> it + "=" + event.getProperty(it)).collect(joining(", "));
@@ -0,0 +1,53 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.HashSet;
+
+import org.junit.jupiter.api.Test;
+
+class FilterAnalyzerTest {
+    @Test
+    void objectClass() {
+        assertEquals("a.B", FilterAnalyzer.findObjectClass("(objectClass=a.B)"));
+        assertEquals("a.B", FilterAnalyzer.findObjectClass("(objectclass=a.B)"));
+        assertEquals("a.B", FilterAnalyzer.findObjectClass("(&(foo=bar)(objectClass=a.B))"));
+        assertEquals("a.B", FilterAnalyzer.findObjectClass("(&(foo=b\\)ar)(&(objectClass=a.B)(x=y)))"));
+        assertNull(FilterAnalyzer.findObjectClass(null));
+        assertNull(FilterAnalyzer.findObjectClass("(foo=bar)"));
+        assertNull(FilterAnalyzer.findObjectClass("(objectClass=a.*)"));
+        assertNull(FilterAnalyzer.findObjectClass("(|(objectClass=a.B)(objectClass=a.C))"));
+        assertNull(FilterAnalyzer.findObjectClass("(!(objectClass=a.B))"));
+        assertNull(FilterAnalyzer.findObjectClass("(objectClass~=a.B)"));
+    }
+
+    @Test
+    void requiredKeys() {
+        assertEquals(singleton("a"), FilterAnalyzer.findRequiredKeys("(a=b)"));
+        assertEquals(singleton("a"), FilterAnalyzer.findRequiredKeys("(a=*)"));
+        assertEquals(new HashSet<>(asList("a", "b")), FilterAnalyzer.findRequiredKeys("(&(a=b)(b>=1))"));
+        assertEquals(singleton("a"), FilterAnalyzer.findRequiredKeys("(|(&(a=b)(b=c))(a~=d))"));
+        assertEquals(singleton("c"), FilterAnalyzer.findRequiredKeys("(&(!(a=b))(c=d\\)))"));
+        assertEquals(emptySet(), FilterAnalyzer.findRequiredKeys("(|(a=b)(c=d))"));
+        assertEquals(emptySet(), FilterAnalyzer.findRequiredKeys("(!(a=b))"));
+        assertEquals(emptySet(), FilterAnalyzer.findRequiredKeys(null));
+        assertEquals(emptySet(), FilterAnalyzer.findRequiredKeys("a=b"));
+    }
+}
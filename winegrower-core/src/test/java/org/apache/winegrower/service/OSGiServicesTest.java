@@ -0,0 +1,214 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.apache.winegrower.Ripener;
+import org.apache.winegrower.deployer.BundleContextImpl;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.hooks.service.FindHook;
+import org.osgi.service.cm.ManagedService;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+
+class OSGiServicesTest {
+    private final OSGiServices services = new OSGiServices(null, emptyList(), emptyList());
+    private final BundleContext context = new BundleRegistry(services, new Ripener.Configuration())
+            .getBundles().get(0L).getBundle().getBundleContext();
+
+    @Test
+    void listenersByObjectClass() throws InvalidSyntaxException {
+        final List<String> events = new ArrayList<>();
+        context.addServiceListener(e -> events.add("simple"), "(objectClass=" + Runnable.class.getName() + ")");
+        context.addServiceListener(e -> events.add("and"), "(&(objectClass=" + Runnable.class.getName() + ")(foo=bar))");
+        context.addServiceListener(e -> events.add("all"));
+
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put("foo", "bar");
+        context.registerService(Runnable.class, () -> {}, properties);
+        assertEquals(asList("simple", "and", "all"), events);
+
+        events.clear();
+        context.registerService(Runnable.class, () -> {}, new Hashtable<>());
+        assertEquals(asList("simple", "all"), events);
+
+        events.clear();
+        context.registerService(Object.class, new Object(), properties);
+        assertEquals(singletonList("all"), events);
+    }
+
+    @Test
+    void assignableLookup() throws InvalidSyntaxException {
+        final ServiceRegistration<?> registration = context.registerService(
+                Task.class.getName(), new Task(), new Hashtable<>());
+        final ServiceReference<?>[] references = context.getServiceReferences(Runnable.class.getName(), null);
+        assertEquals(1, references.length);
+        assertSame(registration.getReference(), references[0]);
+        assertEquals(1, context.getServiceReferences(Runnable.class.getName(), null).length);
+
+        registration.unregister();
+        assertEquals(0, context.getServiceReferences(Runnable.class.getName(), null).length);
+    }
+
+    @Test
+    void exactAndAssignableLookup() throws InvalidSyntaxException {
+        final ServiceRegistration<?> exact = context.registerService(Runnable.class.getName(), new Task(), new Hashtable<>());
+        final ServiceRegistration<?> assignable = context.registerService(Task.class.getName(), new Task(), new Hashtable<>());
+        try {
+            final ServiceReference<?>[] references = context.getServiceReferences(Runnable.class.getName(), null);
+            assertEquals(asList(exact.getReference(), assignable.getReference()), asList(references));
+        } finally {
+            exact.unregister();
+            assignable.unregister();
+        }
+    }
+
+    @Test
+    void managedServiceGetsMutableProperties() {
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put("foo", "bar");
+        final ServiceRegistration<ManagedService> registration = context.registerService(ManagedService.class,
+                config -> ((Dictionary<String, Object>) config).put("foo", "updated"), properties);
+        try {
+            assertEquals("bar", registration.getReference().getProperty("foo"));
+        } finally {
+            registration.unregister();
+        }
+    }
+
+    @Test
+    void rankedSubtype() {
+        final ServiceRegistration<?> exact = context.registerService(Runnable.class.getName(), new Task(), new Hashtable<>());
+        final Hashtable<String, Object> ranked = new Hashtable<>();
+        ranked.put(Constants.SERVICE_RANKING, 10);
+        final ServiceRegistration<?> subtype = context.registerService(Task.class.getName(), new Task(), ranked);
+        try {
+            assertSame(subtype.getReference(), context.getServiceReference(Runnable.class.getName()));
+
+            // same result when the lookup can't use the fast path
+            final ServiceRegistration<FindHook> hook = context.registerService(FindHook.class,
+                    (ctx, name, filter, allServices, references) -> {}, new Hashtable<>());
+            try {
+                assertSame(subtype.getReference(), context.getServiceReference(Runnable.class.getName()));
+            } finally {
+                hook.unregister();
+            }
+        } finally {
+            exact.unregister();
+            subtype.unregister();
+        }
+    }
+
+    @Test
+    void snapshots() {
+        final long generation = services.getGeneration();
+        final Collection<ServiceRegistration<?>> before = services.getServices();
+        final ServiceRegistration<?> registration = context.registerService(Task.class.getName(), new Task(), new Hashtable<>());
+        assertEquals(generation + 1, services.getGeneration());
+        assertEquals(before.size() + 1, services.getServices().size());
+        assertFalse(before.contains(registration));
+
+        registration.unregister();
+        assertEquals(generation + 2, services.getGeneration());
+        assertEquals(before, services.getServices());
+    }
+
+    @Test
+    void batchRegistration() {
+        final List<String> events = new ArrayList<>();
+        context.addServiceListener(e -> events.add("first:" + e.getServiceReference().getProperty("name")));
+        context.addServiceListener(e -> events.add("second:" + e.getServiceReference().getProperty("name")));
+
+        final long generation = services.getGeneration();
+        final List<ServiceRegistration<?>> registrations = BundleContextImpl.class.cast(context).registerServices(asList(
+                new ServiceDefinition(Runnable.class.getName(), new Task(), properties("a")),
+                new ServiceDefinition(Runnable.class.getName(), new Task(), properties("b"))));
+        assertEquals(2, registrations.size());
+        assertEquals(generation + 1, services.getGeneration());
+        assertEquals(asList("first:a", "first:b", "second:a", "second:b"), events);
+        assertEquals(1L + Long.class.cast(registrations.get(0).getReference().getProperty(Constants.SERVICE_ID)),
+                registrations.get(1).getReference().getProperty(Constants.SERVICE_ID));
+        assertSame(registrations.get(0).getReference(), context.getServiceReference(Runnable.class));
+
+        registrations.forEach(ServiceRegistration::unregister);
+        assertEquals(0, services.getServices(Runnable.class.getName()).size());
+    }
+
+    @Test
+    void eventFilterCache() {
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(EventConstants.EVENT_TOPIC, "test");
+        properties.put(EventConstants.EVENT_FILTER, "(" + getClass().getName() + "=true)");
+        final OSGiServices services = new OSGiServices(null, emptyList(), new EventHandlerRegistry());
+        final BundleContext context = new BundleRegistry(services, new Ripener.Configuration())
+                .getBundles().get(0L).getBundle().getBundleContext();
+        final long misses = services.getFilterCache().getMisses();
+        final long hits = services.getFilterCache().getHits();
+        context.registerService(EventHandler.class, event -> {}, properties);
+        context.registerService(EventHandler.class, event -> {}, properties);
+        assertEquals(misses + 1, services.getFilterCache().getMisses());
+        assertEquals(hits + 1, services.getFilterCache().getHits());
+    }
+
+    @Test
+    void invalidEventHandlerDoesNotLeakBatch() {
+        final EventHandlerRegistry listeners = new EventHandlerRegistry();
+        final OSGiServices services = new OSGiServices(null, emptyList(), listeners);
+        final BundleContextImpl context = BundleContextImpl.class.cast(new BundleRegistry(services, new Ripener.Configuration())
+                .getBundles().get(0L).getBundle().getBundleContext());
+        final Hashtable<String, Object> valid = new Hashtable<>();
+        valid.put(EventConstants.EVENT_TOPIC, "test");
+        final Hashtable<String, Object> invalid = new Hashtable<>(valid);
+        invalid.put(DefaultEventAdmin.TIMEOUT_PROPERTY, "not a number");
+        final String[] classes = { EventHandler.class.getName() };
+        final EventHandler handler = event -> {};
+        assertThrows(NumberFormatException.class, () -> context.registerServices(asList(
+                new ServiceDefinition(classes, handler, valid),
+                new ServiceDefinition(classes, handler, invalid))));
+        assertTrue(listeners.isEmpty());
+        assertTrue(services.getServices().isEmpty());
+    }
+
+    private static Hashtable<String, Object> properties(final String name) {
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put("name", name);
+        return properties;
+    }
+
+    public static class Task implements Runnable {
+        @Override
+        public void run() {
+            // no-op
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.winegrower.service;
+
+import static java.util.Collections.singleton;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Hashtable;
+
+import org.junit.jupiter.api.Test;
+
+class ServicePropertiesTest {
+    @Test
+    void overrides() {
+        final String overriden = getClass().getName() + ".overriden";
+        final String forced = getClass().getName() + ".forced";
+        final String forcedDefault = getClass().getName() + ".forcedDefault";
+        final Hashtable<String, Object> declared = new Hashtable<>();
+        declared.put(overriden, "declared");
+        declared.put(forced, "declared");
+        declared.put("simple", "value");
+
+        System.setProperty(overriden, "system");
+        System.setProperty(forced, "system");
+        try {
+            final ServiceProperties properties = ServiceProperties.of(declared, singleton(forced));
+            assertEquals("system", properties.get(overriden));
+            assertEquals("declared", properties.get(forced));
+            assertEquals("value", properties.get("simple"));
+            assertEquals("value", properties.get("SIMPLE"));
+            assertNull(properties.get(forcedDefault));
+            assertEquals(3, properties.size());
+
+            System.setProperty(forcedDefault, "system");
+            final ServiceProperties refreshed = properties.resolve(singleton(forcedDefault));
+            assertEquals("system", refreshed.get(forced));
+            assertEquals("system", refreshed.get(forcedDefault)); // forced after the creation
+            assertEquals(4, refreshed.size());
+
+            assertThrows(UnsupportedOperationException.class, () -> properties.put("simple", "other"));
+        } finally {
+            System.clearProperty(overriden);
+            System.clearProperty(forced);
+            System.clearProperty(forcedDefault);
+        }
+    }
+}
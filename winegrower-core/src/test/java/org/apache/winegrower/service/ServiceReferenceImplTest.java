@@ -15,11 +15,13 @@ package org.apache.winegrower.service;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.Hashtable;
 
 import org.junit.jupiter.api.Test;
 import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
 import org.osgi.framework.PrototypeServiceFactory;
 import org.osgi.framework.ServiceRegistration;
 
@@ -48,5 +50,25 @@ class ServiceReferenceImplTest {
         assertNotSame(ref.getReference(), ref.getReference());
     }
 
+    @Test
+    void ordering() {
+        final ServiceReferenceImpl<Object> first = newReference(1L, null);
+        final ServiceReferenceImpl<Object> second = newReference(2L, null);
+        final ServiceReferenceImpl<Object> ranked = newReference(3L, 10);
+        assertTrue(first.compareTo(second) > 0);
+        assertTrue(second.compareTo(first) < 0);
+        assertTrue(ranked.compareTo(first) > 0);
+        assertEquals(0, first.compareTo(first));
+    }
+
+    private ServiceReferenceImpl<Object> newReference(final long id, final Integer ranking) {
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(Constants.SERVICE_ID, id);
+        if (ranking != null) {
+            properties.put(Constants.SERVICE_RANKING, ranking);
+        }
+        return new ServiceReferenceImpl<>(properties, null, new SomeService());
+    }
+
     static class SomeService {}
 }